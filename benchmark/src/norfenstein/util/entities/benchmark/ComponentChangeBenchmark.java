@@ -0,0 +1,99 @@
+package norfenstein.util.entities.benchmark;
+
+import com.badlogic.gdx.utils.Array;
+import java.util.concurrent.TimeUnit;
+import norfenstein.util.entities.ComponentSignature;
+import norfenstein.util.entities.EntityCommandBuffer;
+import norfenstein.util.entities.EntityManager;
+import norfenstein.util.entities.EntityQuery;
+import norfenstein.util.entities.EntityStore.Entity;
+import norfenstein.util.entities.EntityStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//toggling a component on existing entities, with listeners on the store and on the query the component moves them through
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ComponentChangeBenchmark {
+	private static final int ENTITIES = 1000;
+
+	@Param({ "1", "8", "32" })
+	public int listeners;
+
+	private EntityStore entityStore;
+	private Entity[] entities;
+	private Tag[] tags;
+	private int tagComponentId;
+	private Blackhole blackhole;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		this.blackhole = blackhole;
+
+		entityStore = new EntityStore();
+		tagComponentId = entityStore.getComponentId(Tag.class);
+
+		EntityQuery query = entityStore.acquireQuery(new ComponentSignature(tagComponentId));
+		for (int i = 0; i < listeners; i++) {
+			entityStore.addListener(new EntityManager.Listener() {
+				@Override public void entityAdded(Entity entity) { ComponentChangeBenchmark.this.blackhole.consume(entity); }
+				@Override public void entityRemoved(Entity entity) { ComponentChangeBenchmark.this.blackhole.consume(entity); }
+				@Override public void entityChanged(Entity entity) { ComponentChangeBenchmark.this.blackhole.consume(entity); }
+			});
+			query.addListener(new EntityQuery.Listener() {
+				@Override public void queryChanged(EntityQuery query, Array<Entity> added, Array<Entity> removed) {
+					ComponentChangeBenchmark.this.blackhole.consume(added.size + removed.size);
+				}
+			});
+		}
+
+		entities = new Entity[ENTITIES];
+		tags = new Tag[ENTITIES];
+		for (int i = 0; i < ENTITIES; i++) {
+			entities[i] = entityStore.new Entity(new Position(), new Velocity());
+			tags[i] = new Tag();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTITIES)
+	public void immediate() {
+		for (int i = 0; i < ENTITIES; i++) {
+			entities[i].addComponents(tags[i]);
+		}
+		for (int i = 0; i < ENTITIES; i++) {
+			entities[i].removeComponents(tagComponentId);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTITIES)
+	public void commandBuffer() {
+		EntityCommandBuffer commands = entityStore.getCommandBuffer();
+
+		for (int i = 0; i < ENTITIES; i++) {
+			commands.addComponents(entities[i], tags[i]);
+		}
+		entityStore.flushCommands();
+
+		for (int i = 0; i < ENTITIES; i++) {
+			commands.removeComponents(entities[i], tagComponentId);
+		}
+		entityStore.flushCommands();
+	}
+}
@@ -0,0 +1,83 @@
+package norfenstein.util.entities.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import norfenstein.util.entities.EntityCommandBuffer;
+import norfenstein.util.entities.EntityStore.Entity;
+import norfenstein.util.entities.EntityStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//creating and destroying a wave of entities, the way a spawn-heavy game mode would
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EntityChurnBenchmark {
+	private static final int WAVE = 1000;
+
+	@Param({ "0", "4" })
+	public int systems; //queries the wave's entities join and leave
+
+	private EntityStore entityStore;
+	private Entity[] wave;
+
+	@Setup
+	public void setup() {
+		entityStore = new EntityStore();
+		for (int i = 0; i < systems; i++) {
+			new MovementSystem(entityStore);
+		}
+
+		wave = new Entity[WAVE];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WAVE)
+	public void newAndRemove() {
+		for (int i = 0; i < WAVE; i++) {
+			wave[i] = entityStore.new Entity(new Position(), new Velocity());
+		}
+		for (int i = 0; i < WAVE; i++) {
+			entityStore.removeEntity(wave[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WAVE)
+	public void obtainAndFree() {
+		for (int i = 0; i < WAVE; i++) {
+			wave[i] = entityStore.obtainEntity(entityStore.obtainComponent(Position.class), entityStore.obtainComponent(Velocity.class));
+		}
+		for (int i = 0; i < WAVE; i++) {
+			entityStore.freeEntity(wave[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WAVE)
+	public void commandBuffer() {
+		EntityCommandBuffer commands = entityStore.getCommandBuffer();
+
+		for (int i = 0; i < WAVE; i++) {
+			wave[i] = commands.create(entityStore.obtainComponent(Position.class), entityStore.obtainComponent(Velocity.class));
+		}
+		entityStore.flushCommands();
+
+		for (int i = 0; i < WAVE; i++) {
+			commands.destroy(wave[i]);
+		}
+		entityStore.flushCommands();
+	}
+}
@@ -0,0 +1,54 @@
+package norfenstein.util.entities.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import norfenstein.util.entities.EntityStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//one DeltaIteratingSystem pass over a population, with a second archetype mixed in so the query spans more than one table
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class IterationBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int entities;
+
+	private EntityStore entityStore;
+	private MovementSystem movementSystem;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		entityStore = new EntityStore();
+		movementSystem = new MovementSystem(entityStore);
+
+		for (int i = 0; i < entities; i++) {
+			Velocity velocity = new Velocity();
+			velocity.x = i;
+			velocity.y = -i;
+
+			if (i % 4 == 0) {
+				entityStore.new Entity(new Position(), velocity, new Tag());
+			} else {
+				entityStore.new Entity(new Position(), velocity);
+			}
+		}
+	}
+
+	@Benchmark
+	public void process() {
+		movementSystem.process(1f / 60);
+	}
+}
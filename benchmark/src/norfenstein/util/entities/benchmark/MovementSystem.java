@@ -0,0 +1,30 @@
+package norfenstein.util.entities.benchmark;
+
+import norfenstein.util.entities.ComponentSignature;
+import norfenstein.util.entities.DeltaIteratingSystem;
+import norfenstein.util.entities.EntityManager;
+import norfenstein.util.entities.EntityStore.Entity;
+
+//the smallest useful per-entity workload: integrate velocity into position
+public class MovementSystem extends DeltaIteratingSystem {
+	private final int positionComponentId;
+	private final int velocityComponentId;
+
+	public MovementSystem(EntityManager entityManager) {
+		super(entityManager, new ComponentSignature(entityManager.getComponentId(Position.class), entityManager.getComponentId(Velocity.class)));
+
+		positionComponentId = entityManager.getComponentId(Position.class);
+		velocityComponentId = entityManager.getComponentId(Velocity.class);
+
+		declareReads(velocityComponentId);
+		declareWrites(positionComponentId);
+	}
+
+	@Override protected void processEntity(Entity entity, float delta) {
+		Position position = (Position)entity.getComponent(positionComponentId);
+		Velocity velocity = (Velocity)entity.getComponent(velocityComponentId);
+
+		position.x += velocity.x * delta;
+		position.y += velocity.y * delta;
+	}
+}
@@ -0,0 +1,12 @@
+package norfenstein.util.entities.benchmark;
+
+import norfenstein.util.entities.Component;
+
+public class Position extends Component {
+	public float x, y;
+
+	@Override public void reset() {
+		x = 0;
+		y = 0;
+	}
+}
@@ -0,0 +1,5 @@
+package norfenstein.util.entities.benchmark;
+
+import norfenstein.util.entities.Component;
+
+public class Tag extends Component { }
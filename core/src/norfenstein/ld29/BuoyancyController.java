@@ -3,15 +3,211 @@ package norfenstein.ld29;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.ChainShape;
 import com.badlogic.gdx.physics.box2d.CircleShape;
+import com.badlogic.gdx.physics.box2d.EdgeShape;
 import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
 import com.badlogic.gdx.physics.box2d.Shape;
 import com.badlogic.gdx.physics.box2d.Transform;
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.Pool;
+import java.util.Arrays;
 
+//applies buoyancy and drag to every body added to it, summed over all of the body's fixtures and applied as a single force
+//and torque; edges and chains only feel drag, across their submerged length; each fixture's local geometry is read once when its body is added, so bodies must
+//be removed before they're destroyed or their fixtures change. Sleeping bodies are skipped, and bounding circles around
+//each body and fixture decide whether it's dry, wet or actually crossing the surface before any area is computed; a body
+//that's been asleep since the last step isn't read again, so one moved while asleep must be woken
 public final class BuoyancyController {
-	private ObjectSet<Body> bodies;
+	public enum Precision {
+		EXACT, //closed form, with an asin, sqrt and pow per partially submerged circle
+		FAST //interpolated from SegmentTable; see there for the error bound
+	}
+
+	private static final int CIRCLE = 0;
+	private static final int POLYGON = 1;
+	private static final int SEGMENTS = 2; //an edge, or a chain's vertices in order
+
+	//circular segment area and centroid for a unit circle by normalized depth, interpolated from a table
+	private static final class SegmentTable {
+		static final int SIZE = 256;
+		static final float[] areas = new float[SIZE + 1];
+		static final float[] offsets = new float[SIZE + 1]; //centroid distance along the normal, in radii
+
+		static {
+			for (int i = 0; i <= SIZE; i++) {
+				double depth = -1 + 2.0 * i / SIZE;
+				double area = Math.asin(depth) + Math.PI / 2 + depth * Math.sqrt(1 - depth * depth);
+				areas[i] = (float)area;
+				offsets[i] = area > 0 ? (float)(-2.0 / 3.0 * Math.pow(1 - depth * depth, 1.5) / area) : -1; //a sliver at the bottom
+			}
+		}
+	}
+
+	//local geometry of one body's fixtures; edges and chains enclose no area, so they add nothing to the totals
+	private static final class Hull {
+		int size;
+		int segmentParts;
+		int[] types = new int[2];
+		float[] densities = new float[2];
+		int[] vertexStarts = new int[2]; //into vertices, as a vertex index
+		int[] vertexCounts = new int[2]; //circles have one vertex, their center
+		float[] radii = new float[2];
+		float[] vertices = new float[16];
+		int vertexCount;
+
+		float[] boundX = new float[2]; //bounding circle of each part, in local space
+		float[] boundY = new float[2];
+		float[] boundRadii = new float[2];
+		float[] fullAreas = new float[2]; //area and local centroid of each part when it's completely wet
+		float[] fullX = new float[2];
+		float[] fullY = new float[2];
+
+		//the same for the hull as a whole, with the mass centroid weighted by density
+		float hullBoundX, hullBoundY, hullBoundRadius;
+		float area, areaX, areaY;
+		float mass, massX, massY;
+
+		void clear() {
+			size = 0;
+			segmentParts = 0;
+			vertexCount = 0;
+		}
+
+		void addPart(int type, float density, float radius) {
+			if (size == types.length) {
+				int capacity = size * 2;
+				types = Arrays.copyOf(types, capacity);
+				densities = Arrays.copyOf(densities, capacity);
+				vertexStarts = Arrays.copyOf(vertexStarts, capacity);
+				vertexCounts = Arrays.copyOf(vertexCounts, capacity);
+				radii = Arrays.copyOf(radii, capacity);
+				boundX = Arrays.copyOf(boundX, capacity);
+				boundY = Arrays.copyOf(boundY, capacity);
+				boundRadii = Arrays.copyOf(boundRadii, capacity);
+				fullAreas = Arrays.copyOf(fullAreas, capacity);
+				fullX = Arrays.copyOf(fullX, capacity);
+				fullY = Arrays.copyOf(fullY, capacity);
+			}
+
+			if (type == SEGMENTS) segmentParts++;
+			types[size] = type;
+			densities[size] = density;
+			vertexStarts[size] = vertexCount;
+			vertexCounts[size] = 0;
+			radii[size] = radius;
+			size++;
+		}
+
+		void addVertex(float x, float y) {
+			if (vertexCount * 2 == vertices.length) {
+				vertices = Arrays.copyOf(vertices, vertices.length * 2);
+			}
+
+			vertices[vertexCount * 2] = x;
+			vertices[vertexCount * 2 + 1] = y;
+			vertexCount++;
+			vertexCounts[size - 1]++;
+		}
+
+		//works out the bounds and wet totals once every part has been added
+		void finish(float[] centroid) {
+			area = 0;
+			areaX = 0;
+			areaY = 0;
+			mass = 0;
+			massX = 0;
+			massY = 0;
+
+			for (int part = 0; part < size; part++) {
+				int start = vertexStarts[part];
+				if (types[part] == CIRCLE) {
+					fullAreas[part] = MathUtils.PI * radii[part] * radii[part];
+					fullX[part] = vertices[start * 2];
+					fullY[part] = vertices[start * 2 + 1];
+					boundRadii[part] = radii[part];
+				} else {
+					if (types[part] == POLYGON) {
+						fullAreas[part] = computeArea(vertices, start, vertexCounts[part], centroid);
+					} else {
+						fullAreas[part] = 0;
+						computeMidpoint(vertices, start, vertexCounts[part], centroid);
+					}
+					fullX[part] = centroid[0];
+					fullY[part] = centroid[1];
+					boundRadii[part] = 0;
+					for (int i = start; i < start + vertexCounts[part]; i++) {
+						float distance = Vector2.len(vertices[i * 2] - fullX[part], vertices[i * 2 + 1] - fullY[part]);
+						if (distance > boundRadii[part]) boundRadii[part] = distance;
+					}
+				}
+				boundX[part] = fullX[part];
+				boundY[part] = fullY[part];
+
+				float partMass = fullAreas[part] * densities[part];
+				area += fullAreas[part];
+				areaX += fullAreas[part] * fullX[part];
+				areaY += fullAreas[part] * fullY[part];
+				mass += partMass;
+				massX += partMass * fullX[part];
+				massY += partMass * fullY[part];
+			}
+
+			if (area > 0) {
+				areaX /= area;
+				areaY /= area;
+				massX /= mass;
+				massY /= mass;
+			}
+
+			hullBoundX = areaX;
+			hullBoundY = areaY;
+			hullBoundRadius = 0;
+			for (int part = 0; part < size; part++) {
+				float distance = Vector2.len(boundX[part] - hullBoundX, boundY[part] - hullBoundY) + boundRadii[part];
+				if (distance > hullBoundRadius) hullBoundRadius = distance;
+			}
+		}
+	}
+
+	//what classify() found for each body
+	private static final int ASLEEP = 0; //with its transform and bounds read since it fell asleep
+	private static final int DRY = 1;
+	private static final int WET = 2;
+	private static final int PARTIAL = 3;
+
+	private final Pool<Hull> hullPool;
+	private final ObjectIntMap<Body> slots;
+	private int size;
+	private Body[] bodies;
+	private Hull[] hulls;
+	private int[] states;
+	private int[] seen; //membership stamp of each slot
+	private int stamp;
+	private float[] weights; //share of each body inside the extent
+	private int sleepingCount;
+	private int dryCount;
+	private int wetCount;
+	private int partialCount;
+
+	//gathered from each body at the start of a step, then overwritten with the results
+	private float[] positionX;
+	private float[] positionY;
+	private float[] cos;
+	private float[] sin;
+	private float[] boundX; //center of the body's bounding circle
+	private float[] boundY;
+	private float[] centerX;
+	private float[] centerY;
+	private float[] velocityX;
+	private float[] velocityY;
+	private float[] angularVelocity;
+	private float[] angularDragFactor; //inertia over mass, or 0 if there's no angular drag
+	private float[] forceX;
+	private float[] forceY;
+	private float[] torque;
 
 	private final Vector2 surfaceNormal;
 	private final Vector2 fluidVelocity;
@@ -20,14 +216,36 @@ public final class BuoyancyController {
 	private float angularDrag;
 	private float surfaceHeight;
 	private float fluidDensity;
+	private Precision precision;
+	private boolean bounded;
+	private WaterSurface waterSurface;
+
+	//surface plane where the last heightAboveSurface() call looked
+	private float planeNormalX;
+	private float planeNormalY;
+	private float planeOffset;
+	private float extentMin;
+	private float extentMax;
 
 	private final Vector2 tempVector;
-	private final Vector2 sc;
-	private final Vector2 areac;
-	private final Vector2 massc;
+	private final float[] centroid;
+	private float[] clipped; //scratch for polygons cut by the surface
 
 	public BuoyancyController(Vector2 surfaceNormal, Vector2 fluidVelocity, Vector2 gravity, float surfaceHeight, float fluidDensity, float linearDrag, float angularDrag) {
-		bodies = new ObjectSet<Body>();
+		hullPool = new Pool<Hull>() {
+			@Override protected Hull newObject() {
+				return new Hull();
+			}
+		};
+		slots = new ObjectIntMap<Body>();
+		size = 0;
+		bodies = new Body[16];
+		hulls = new Hull[16];
+		states = new int[16];
+		seen = new int[16];
+		stamp = 0;
+		weights = new float[16];
+		allocateGathered(16);
 
 		this.surfaceNormal = new Vector2(surfaceNormal);
 		this.fluidVelocity = new Vector2(fluidVelocity);
@@ -36,95 +254,539 @@ public final class BuoyancyController {
 		this.fluidDensity = fluidDensity;
 		this.linearDrag = linearDrag;
 		this.angularDrag = angularDrag;
+		precision = Precision.EXACT;
+		bounded = false;
 
 		tempVector = new Vector2();
-		sc = new Vector2();
-		areac = new Vector2();
-		massc = new Vector2();
+		centroid = new float[2];
+		clipped = new float[2 * 10];
 	}
 
 	public void addBody(Body body) {
-		bodies.add(body);
+		if (slots.containsKey(body)) return;
+
+		if (size == bodies.length) {
+			int capacity = size * 2;
+			bodies = Arrays.copyOf(bodies, capacity);
+			hulls = Arrays.copyOf(hulls, capacity);
+			states = Arrays.copyOf(states, capacity);
+			seen = Arrays.copyOf(seen, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			allocateGathered(capacity);
+		}
+
+		Hull hull = hullPool.obtain();
+		readHull(body, hull);
+
+		bodies[size] = body;
+		hulls[size] = hull;
+		states[size] = DRY; //until it's been read
+		seen[size] = stamp;
+		slots.put(body, size);
+		size++;
 	}
 
 	public void removeBody(Body body) {
-		bodies.remove(body);
+		int slot = slots.remove(body, -1);
+		if (slot < 0) return;
+
+		hullPool.free(hulls[slot]);
+
+		int last = --size;
+		if (slot != last) {
+			moveSlot(last, slot);
+			slots.put(bodies[slot], slot);
+		}
+		bodies[last] = null;
+		hulls[last] = null;
+	}
+
+	//everything kept per slot goes along, so the moved body keeps its own membership stamp and step state
+	private void moveSlot(int from, int to) {
+		bodies[to] = bodies[from];
+		hulls[to] = hulls[from];
+		states[to] = states[from];
+		seen[to] = seen[from];
+		weights[to] = weights[from];
+
+		positionX[to] = positionX[from];
+		positionY[to] = positionY[from];
+		cos[to] = cos[from];
+		sin[to] = sin[from];
+		boundX[to] = boundX[from];
+		boundY[to] = boundY[from];
+		centerX[to] = centerX[from];
+		centerY[to] = centerY[from];
+		velocityX[to] = velocityX[from];
+		velocityY[to] = velocityY[from];
+		angularVelocity[to] = angularVelocity[from];
+		angularDragFactor[to] = angularDragFactor[from];
+		forceX[to] = forceX[from];
+		forceY[to] = forceY[from];
+		torque[to] = torque[from];
+	}
+
+	public boolean hasBody(Body body) {
+		return slots.containsKey(body);
+	}
+
+	// Membership /////////////////////////////////////////////
+
+	//touch or add every body still in the fluid between these two; the rest are removed at the end
+	public void beginMembership() {
+		stamp++;
+	}
+
+	//returns false if the body isn't a member, in which case it's up to the caller whether to add it
+	public boolean touchBody(Body body) {
+		int slot = slots.get(body, -1);
+		if (slot < 0) return false;
+
+		seen[slot] = stamp;
+		return true;
+	}
+
+	public void endMembership() {
+		for (int i = size - 1; i >= 0; i--) {
+			if (seen[i] != stamp) {
+				removeBody(bodies[i]);
+			}
+		}
+	}
+
+	//limits the fluid to a stretch along its surface; bodies hanging over an end only get the share inside
+	public void setExtent(float min, float max) {
+		bounded = true;
+		extentMin = min;
+		extentMax = max;
+	}
+
+	//replaces the flat surface with waves around surfaceHeight; only for controllers with an upward surface normal
+	public void setWaterSurface(WaterSurface waterSurface) {
+		this.waterSurface = waterSurface;
+	}
+	public WaterSurface getWaterSurface() {
+		return waterSurface;
+	}
+
+	public Precision getPrecision() {
+		return precision;
+	}
+	public void setPrecision(Precision precision) {
+		this.precision = precision;
+	}
+
+	// as of the last step
+	public int getSleepingCount() {
+		return sleepingCount;
+	}
+	public int getDryCount() {
+		return dryCount;
+	}
+	public int getWetCount() {
+		return wetCount;
+	}
+	public int getPartialCount() {
+		return partialCount;
 	}
 
 	public void step() {
-		for (Body body : bodies) {
-			Array<Fixture> fixtures = body.getFixtureList();
-			for (int i = 0; i < fixtures.size; i++) {
-				applyToFixture(fixtures.get(i));
+		classify();
+		gather();
+
+		for (int i = 0; i < size; i++) {
+			switch (states[i]) {
+				case WET:
+					solveWet(i);
+					if (hulls[i].segmentParts > 0) applySegmentDrag(i, true);
+					break;
+				case PARTIAL:
+					solvePartial(i);
+					if (hulls[i].segmentParts > 0) applySegmentDrag(i, false);
+					break;
+				default:
+					forceX[i] = 0;
+					forceY[i] = 0;
+					torque[i] = 0;
+					break;
+			}
+		}
+
+		// only awake bodies get here, and waking them would stop them from ever getting to sleep
+		for (int i = 0; i < size; i++) {
+			if (forceX[i] != 0 || forceY[i] != 0) {
+				bodies[i].applyForceToCenter(forceX[i], forceY[i], false);
+			}
+			if (torque[i] != 0) {
+				bodies[i].applyTorque(torque[i], false);
+			}
+		}
+	}
+
+	// Gathering /////////////////////////////////////////////
+
+	private void readHull(Body body, Hull hull) {
+		hull.clear();
+
+		Array<Fixture> fixtures = body.getFixtureList();
+		for (int i = 0; i < fixtures.size; i++) {
+			Fixture fixture = fixtures.get(i);
+			Shape.Type type = fixture.getType();
+			if (fixture.getDensity() == 0 && (type == Shape.Type.Circle || type == Shape.Type.Polygon)) continue;
+
+			Shape shape = fixture.getShape();
+			switch (type) {
+				case Circle:
+					Vector2 center = ((CircleShape)shape).getPosition();
+					hull.addPart(CIRCLE, fixture.getDensity(), shape.getRadius());
+					hull.addVertex(center.x, center.y);
+					break;
+
+				case Polygon:
+					PolygonShape polygon = (PolygonShape)shape;
+					int vertexCount = polygon.getVertexCount();
+					hull.addPart(POLYGON, fixture.getDensity(), 0);
+					for (int j = 0; j < vertexCount; j++) {
+						polygon.getVertex(j, tempVector);
+						hull.addVertex(tempVector.x, tempVector.y);
+					}
+					if (clipped.length < 2 * (vertexCount + 1)) {
+						clipped = new float[2 * (vertexCount + 1)];
+					}
+					break;
+
+				case Edge:
+					EdgeShape edge = (EdgeShape)shape;
+					hull.addPart(SEGMENTS, fixture.getDensity(), 0);
+					edge.getVertex1(tempVector);
+					hull.addVertex(tempVector.x, tempVector.y);
+					edge.getVertex2(tempVector);
+					hull.addVertex(tempVector.x, tempVector.y);
+					break;
+
+				case Chain: //loops repeat their first vertex at the end, so following the vertices in order covers every edge
+					ChainShape chain = (ChainShape)shape;
+					hull.addPart(SEGMENTS, fixture.getDensity(), 0);
+					for (int j = 0; j < chain.getVertexCount(); j++) {
+						chain.getVertex(j, tempVector);
+						hull.addVertex(tempVector.x, tempVector.y);
+					}
+					break;
+			}
+		}
+
+		hull.finish(centroid);
+	}
+
+	//reads each body's transform and sorts it by where its bounding circle is relative to the surface
+	private void classify() {
+		sleepingCount = 0;
+		dryCount = 0;
+		wetCount = 0;
+		partialCount = 0;
+
+		for (int i = 0; i < size; i++) {
+			Body body = bodies[i];
+			Hull hull = hulls[i];
+
+			boolean awake = body.isAwake();
+			if (!awake && states[i] == ASLEEP && (waterSurface == null || waterSurface.isCalm(boundX[i], hull.hullBoundRadius))) {
+				sleepingCount++; //it can't have moved since it was read, so isAwake() is all that goes through to Box2D
+				continue;
+			}
+
+			float[] transform = body.getTransform().vals;
+			float px = transform[Transform.POS_X];
+			float py = transform[Transform.POS_Y];
+			float c = transform[Transform.COS];
+			float s = transform[Transform.SIN];
+			positionX[i] = px;
+			positionY[i] = py;
+			cos[i] = c;
+			sin[i] = s;
+			boundX[i] = px + c * hull.hullBoundX - s * hull.hullBoundY;
+			boundY[i] = py + s * hull.hullBoundX + c * hull.hullBoundY;
+
+			if (!awake) {
+				if (waterSurface == null || waterSurface.isCalm(boundX[i], hull.hullBoundRadius)) {
+					states[i] = ASLEEP;
+					sleepingCount++;
+					continue;
+				}
+				body.setAwake(true); //a wave reached it
+			}
+
+			float height = heightAboveSurface(boundX[i], boundY[i]);
+			float weight = bounded ? extentWeight(boundX[i], boundY[i], hull.hullBoundRadius) : 1;
+			weights[i] = weight;
+
+			if (hull.size == 0 || height >= hull.hullBoundRadius || weight <= 0) {
+				states[i] = DRY;
+				dryCount++;
+			} else if (height <= -hull.hullBoundRadius) {
+				states[i] = WET;
+				wetCount++;
+			} else {
+				states[i] = PARTIAL;
+				partialCount++;
 			}
 		}
 	}
 
-	private boolean applyToFixture(Fixture fixture) {
-		if (fixture.getDensity() == 0) {
-			return false;
+	//reads the motion of every body that's at least partly in the water
+	private void gather() {
+		boolean readMass = angularDrag != 0;
+
+		for (int i = 0; i < size; i++) {
+			if (states[i] != WET && states[i] != PARTIAL) continue;
+
+			Body body = bodies[i];
+
+			Vector2 center = body.getWorldCenter();
+			centerX[i] = center.x;
+			centerY[i] = center.y;
+
+			Vector2 velocity = body.getLinearVelocity();
+			velocityX[i] = velocity.x;
+			velocityY[i] = velocity.y;
+			angularVelocity[i] = body.getAngularVelocity();
+
+			if (readMass) {
+				float bodyMass = body.getMass();
+				if (bodyMass < 1) bodyMass = 1; // prevent a huge torque from being generated...
+				angularDragFactor[i] = body.getInertia() / bodyMass;
+			} else {
+				angularDragFactor[i] = 0;
+			}
 		}
+	}
+
+	private void allocateGathered(int capacity) {
+		positionX = grow(positionX, capacity);
+		positionY = grow(positionY, capacity);
+		cos = grow(cos, capacity);
+		sin = grow(sin, capacity);
+		boundX = grow(boundX, capacity);
+		boundY = grow(boundY, capacity);
+		centerX = grow(centerX, capacity);
+		centerY = grow(centerY, capacity);
+		velocityX = grow(velocityX, capacity);
+		velocityY = grow(velocityY, capacity);
+		angularVelocity = grow(angularVelocity, capacity);
+		angularDragFactor = grow(angularDragFactor, capacity);
+		forceX = grow(forceX, capacity);
+		forceY = grow(forceY, capacity);
+		torque = grow(torque, capacity);
+	}
+
+	private static float[] grow(float[] array, int capacity) {
+		return array == null ? new float[capacity] : Arrays.copyOf(array, capacity);
+	}
 
-		Body body = fixture.getBody();
+	// Solving /////////////////////////////////////////////
 
-		sc.set(Vector2.Zero);
-		float sarea;
-		switch (fixture.getShape().getType()) {
-			case Circle:
-				sarea = computeSubmergedArea((CircleShape)fixture.getShape(), surfaceNormal, surfaceHeight, body.getTransform(), sc);
-				break;
+	//also leaves the surface plane at x in planeNormalX, planeNormalY and planeOffset, for working out the area
+	private float heightAboveSurface(float x, float y) {
+		if (waterSurface == null) {
+			planeNormalX = surfaceNormal.x;
+			planeNormalY = surfaceNormal.y;
+			planeOffset = surfaceHeight;
+		} else { // tangent to the waves at x
+			float height = surfaceHeight + waterSurface.getHeight(x);
+			float slope = waterSurface.getSlope(x);
+			float length = (float)Math.sqrt(slope * slope + 1);
+			planeNormalX = -slope / length;
+			planeNormalY = 1 / length;
+			planeOffset = planeNormalX * x + planeNormalY * height;
+		}
+
+		return planeNormalX * x + planeNormalY * y - planeOffset;
+	}
 
-			default:
-				return false;
+	//how much of a bounding circle lies within the extent, along the surface
+	private float extentWeight(float x, float y, float radius) {
+		float along = surfaceNormal.y * x - surfaceNormal.x * y;
+		if (radius <= 0) {
+			return along >= extentMin && along <= extentMax ? 1 : 0;
 		}
 
-		float area = sarea;
-		areac.set(Vector2.Zero);
-		areac.x += sarea * sc.x;
-		areac.y += sarea * sc.y;
+		float overlap = Math.min(extentMax, along + radius) - Math.max(extentMin, along - radius);
+		return MathUtils.clamp(overlap / (2 * radius), 0, 1);
+	}
+
+	//the whole body is under the surface, so the totals worked out when it was added only need to be moved into place
+	private void solveWet(int i) {
+		Hull hull = hulls[i];
+		float px = positionX[i];
+		float py = positionY[i];
+		float c = cos[i];
+		float s = sin[i];
+
+		applyFluid(i, hull.area,
+			px + c * hull.areaX - s * hull.areaY, py + s * hull.areaX + c * hull.areaY,
+			px + c * hull.massX - s * hull.massY, py + s * hull.massX + c * hull.massY);
+	}
+
+	//sums the submerged area of every part of body i, only working it out for parts that actually cross the surface
+	private void solvePartial(int i) {
+		Hull hull = hulls[i];
+		float px = positionX[i];
+		float py = positionY[i];
+		float c = cos[i];
+		float s = sin[i];
+
+		float area = 0;
+		float areaX = 0;
+		float areaY = 0;
+		float mass = 0;
+		float massX = 0;
+		float massY = 0;
+		boolean fast = precision == Precision.FAST;
 
-		float mass = sarea * fixture.getDensity();
-		massc.set(Vector2.Zero);
-		massc.x += sarea * sc.x * fixture.getDensity();
-		massc.y += sarea * sc.y * fixture.getDensity();
+		for (int part = 0; part < hull.size; part++) {
+			if (hull.types[part] == SEGMENTS) continue; //see applySegmentDrag()
 
-		areac.x /= area;
-		areac.y /= area;
-		massc.x /= mass;
-		massc.y /= mass;
+			float x = px + c * hull.boundX[part] - s * hull.boundY[part];
+			float y = py + s * hull.boundX[part] + c * hull.boundY[part];
+			float height = heightAboveSurface(x, y);
+
+			float partArea;
+			if (height >= hull.boundRadii[part]) { // completely dry
+				continue;
+			} else if (height <= -hull.boundRadii[part]) { // completely wet
+				partArea = hull.fullAreas[part];
+				centroid[0] = px + c * hull.fullX[part] - s * hull.fullY[part];
+				centroid[1] = py + s * hull.fullX[part] + c * hull.fullY[part];
+			} else if (hull.types[part] == CIRCLE) { // bounds are the circle itself
+				partArea = fast ?
+					computeSubmergedAreaFast(x, y, hull.radii[part], planeNormalX, planeNormalY, planeOffset, centroid) :
+					computeSubmergedArea(x, y, hull.radii[part], planeNormalX, planeNormalY, planeOffset, centroid);
+			} else {
+				partArea = computeSubmergedArea(hull.vertices, hull.vertexStarts[part], hull.vertexCounts[part], px, py, c, s, planeNormalX, planeNormalY, planeOffset, clipped, centroid);
+			}
+
+			if (partArea > 0) {
+				float partMass = partArea * hull.densities[part];
+				area += partArea;
+				areaX += partArea * centroid[0];
+				areaY += partArea * centroid[1];
+				mass += partMass;
+				massX += partMass * centroid[0];
+				massY += partMass * centroid[1];
+			}
+		}
 
 		if (area < Float.MIN_VALUE) {
-			return false;
+			forceX[i] = 0;
+			forceY[i] = 0;
+			torque[i] = 0;
+			return;
 		}
 
-		// buoyancy force
-		tempVector.set(gravity).scl(-fluidDensity * area);
-		body.applyForce(tempVector, massc, true); // multiply by -density to invert gravity
+		applyFluid(i, area, areaX / area, areaY / area, massX / mass, massY / mass);
+	}
 
-		// linear drag
-		tempVector.set(body.getLinearVelocityFromWorldPoint(areac).sub(fluidVelocity).scl(-linearDrag * area));
-		body.applyForce(tempVector, areac, true);
+	//turns a submerged area, with its world space centroid and that of its mass, into a force and torque about the center of mass
+	private void applyFluid(int i, float area, float areaX, float areaY, float massX, float massY) {
+		area *= weights[i];
 
-		// angular drag
-		float bodyMass = body.getMass();
-		if (bodyMass < 1) bodyMass = 1; // prevent a huge torque from being generated...
-		body.applyTorque(-body.getInertia() / bodyMass * area * body.getAngularVelocity() * angularDrag, true);
+		float cx = centerX[i];
+		float cy = centerY[i];
+		float omega = angularVelocity[i];
 
-		return true;
+		// buoyancy force
+		float buoyancyX = gravity.x * -fluidDensity * area; // multiply by -density to invert gravity
+		float buoyancyY = gravity.y * -fluidDensity * area;
+
+		// linear drag, from the velocity of the body at the center of the submerged area
+		float dragX = (velocityX[i] - omega * (areaY - cy) - fluidVelocity.x) * -linearDrag * area;
+		float dragY = (velocityY[i] + omega * (areaX - cx) - fluidVelocity.y) * -linearDrag * area;
+
+		forceX[i] = buoyancyX + dragX;
+		forceY[i] = buoyancyY + dragY;
+		torque[i] = (massX - cx) * buoyancyY - (massY - cy) * buoyancyX
+			+ (areaX - cx) * dragY - (areaY - cy) * dragX
+			- angularDragFactor[i] * area * omega * angularDrag; // angular drag
 	}
 
+	//drag across the submerged part of each of body i's edges, from the velocity at that part's middle
+	private void applySegmentDrag(int i, boolean wet) {
+		Hull hull = hulls[i];
+		float px = positionX[i];
+		float py = positionY[i];
+		float c = cos[i];
+		float s = sin[i];
+		float cx = centerX[i];
+		float cy = centerY[i];
+		float omega = angularVelocity[i];
+		float[] vertices = hull.vertices;
+
+		for (int part = 0; part < hull.size; part++) {
+			if (hull.types[part] != SEGMENTS) continue;
 
-	public static float computeSubmergedArea(CircleShape shape, Vector2 normal, float offset, Transform xf, Vector2 c) {
-		Vector2 p = xf.mul(shape.getPosition());
-		float l = -(normal.dot(p) - offset);
-		float r = shape.getRadius();
+			boolean partWet = wet;
+			if (!partWet) {
+				float x = px + c * hull.boundX[part] - s * hull.boundY[part];
+				float y = py + s * hull.boundX[part] + c * hull.boundY[part];
+				float height = heightAboveSurface(x, y);
+				if (height >= hull.boundRadii[part]) continue; // completely dry
+				partWet = height <= -hull.boundRadii[part];
+			}
+
+			int start = hull.vertexStarts[part];
+			int end = start + hull.vertexCounts[part] - 1;
+			for (int v = start; v < end; v++) {
+				float ax = px + c * vertices[v * 2] - s * vertices[v * 2 + 1];
+				float ay = py + s * vertices[v * 2] + c * vertices[v * 2 + 1];
+				float bx = px + c * vertices[v * 2 + 2] - s * vertices[v * 2 + 3];
+				float by = py + s * vertices[v * 2 + 2] + c * vertices[v * 2 + 3];
+
+				float length = Vector2.len(bx - ax, by - ay);
+				if (length < Float.MIN_VALUE) continue;
+				float normalX = -(by - ay) / length;
+				float normalY = (bx - ax) / length;
+
+				if (!partWet) {
+					float heightA = heightAboveSurface(ax, ay);
+					float heightB = heightAboveSurface(bx, by);
+					if (heightA >= 0 && heightB >= 0) continue; // dry
+					if (heightA > 0) { // keep the submerged end
+						float t = heightA / (heightA - heightB);
+						ax += (bx - ax) * t;
+						ay += (by - ay) * t;
+					} else if (heightB > 0) {
+						float t = heightB / (heightB - heightA);
+						bx += (ax - bx) * t;
+						by += (ay - by) * t;
+					}
+					length = Vector2.len(bx - ax, by - ay);
+				}
+
+				float mx = (ax + bx) / 2;
+				float my = (ay + by) / 2;
+				float across = (velocityX[i] - omega * (my - cy) - fluidVelocity.x) * normalX
+					+ (velocityY[i] + omega * (mx - cx) - fluidVelocity.y) * normalY;
+				float drag = -linearDrag * length * weights[i] * across;
+
+				forceX[i] += drag * normalX;
+				forceY[i] += drag * normalY;
+				torque[i] += (mx - cx) * drag * normalY - (my - cy) * drag * normalX;
+			}
+		}
+	}
+
+	//circle centered at (x, y) in world space; the centroid of the submerged part goes in centroid[0] and [1]
+	static float computeSubmergedArea(float x, float y, float r, float normalX, float normalY, float offset, float[] centroid) {
+		float l = -(normalX * x + normalY * y - offset);
 
 		if (l < -r) { // completely dry
 			return 0;
 		}
 
+		centroid[0] = x;
+		centroid[1] = y;
+
 		if (l > r) { // completely wet
-			c.set(p);
 			return MathUtils.PI * r * r;
 		}
 
@@ -132,9 +794,139 @@ public final class BuoyancyController {
 		float l2 = l * l;
 		float area = r2 * ((float)Math.asin(l / r) + MathUtils.PI / 2) + l * (float)Math.sqrt(r2 - l2);
 		float com = -2.0f / 3.0f * (float)Math.pow(r2 - l2, 1.5f) / area;
-		c.x = p.x + normal.x * com;
-		c.y = p.y + normal.y * com;
+		centroid[0] += normalX * com;
+		centroid[1] += normalY * com;
 
 		return area;
 	}
+
+	//same as computeSubmergedArea(), but looking the segment up in SegmentTable
+	static float computeSubmergedAreaFast(float x, float y, float r, float normalX, float normalY, float offset, float[] centroid) {
+		float l = -(normalX * x + normalY * y - offset);
+
+		if (l < -r) { // completely dry
+			return 0;
+		}
+
+		centroid[0] = x;
+		centroid[1] = y;
+
+		if (l > r) { // completely wet
+			return MathUtils.PI * r * r;
+		}
+
+		float position = (l / r + 1) * (SegmentTable.SIZE / 2);
+		int index = (int)position;
+		if (index >= SegmentTable.SIZE) index = SegmentTable.SIZE - 1;
+		float fraction = position - index;
+
+		float[] areas = SegmentTable.areas;
+		float[] offsets = SegmentTable.offsets;
+		float area = r * r * (areas[index] + (areas[index + 1] - areas[index]) * fraction);
+		float com = r * (offsets[index] + (offsets[index + 1] - offsets[index]) * fraction);
+		centroid[0] += normalX * com;
+		centroid[1] += normalY * com;
+
+		return area;
+	}
+
+	//clips a convex polygon in local space against the surface; returns the area below it and its world centroid
+	static float computeSubmergedArea(float[] vertices, int start, int count, float px, float py, float c, float s, float normalX, float normalY, float offset, float[] clipped, float[] centroid) {
+		// surface in the polygon's local space
+		float localNormalX = c * normalX + s * normalY;
+		float localNormalY = -s * normalX + c * normalY;
+		float localOffset = offset - (normalX * px + normalY * py);
+
+		int clippedCount = 0;
+		int last = (start + count - 1) * 2;
+		float previousX = vertices[last];
+		float previousY = vertices[last + 1];
+		float previousDepth = localOffset - (localNormalX * previousX + localNormalY * previousY);
+
+		for (int i = 0; i < count; i++) {
+			int vertex = (start + i) * 2;
+			float x = vertices[vertex];
+			float y = vertices[vertex + 1];
+			float depth = localOffset - (localNormalX * x + localNormalY * y);
+
+			if ((depth > 0) != (previousDepth > 0)) { // edge crosses the surface
+				float t = previousDepth / (previousDepth - depth);
+				clipped[clippedCount * 2] = previousX + (x - previousX) * t;
+				clipped[clippedCount * 2 + 1] = previousY + (y - previousY) * t;
+				clippedCount++;
+			}
+			if (depth > 0) {
+				clipped[clippedCount * 2] = x;
+				clipped[clippedCount * 2 + 1] = y;
+				clippedCount++;
+			}
+
+			previousX = x;
+			previousY = y;
+			previousDepth = depth;
+		}
+
+		if (clippedCount < 3) { // completely dry
+			return 0;
+		}
+
+		float area = computeArea(clipped, 0, clippedCount, centroid);
+		if (area < Float.MIN_VALUE) {
+			return 0;
+		}
+
+		float localX = centroid[0];
+		float localY = centroid[1];
+		centroid[0] = px + c * localX - s * localY;
+		centroid[1] = py + s * localX + c * localY;
+
+		return area;
+	}
+
+	//area and centroid of a convex polygon, as a triangle fan from its first vertex
+	static float computeArea(float[] vertices, int start, int count, float[] centroid) {
+		float originX = vertices[start * 2];
+		float originY = vertices[start * 2 + 1];
+		float area = 0;
+		float sumX = 0;
+		float sumY = 0;
+		for (int i = start + 1; i < start + count - 1; i++) {
+			float ax = vertices[i * 2] - originX;
+			float ay = vertices[i * 2 + 1] - originY;
+			float bx = vertices[i * 2 + 2] - originX;
+			float by = vertices[i * 2 + 3] - originY;
+
+			float triangleArea = 0.5f * (ax * by - ay * bx);
+			area += triangleArea;
+			sumX += triangleArea * (ax + bx) / 3;
+			sumY += triangleArea * (ay + by) / 3;
+		}
+
+		if (area < Float.MIN_VALUE) {
+			centroid[0] = originX;
+			centroid[1] = originY;
+			return 0;
+		}
+
+		centroid[0] = originX + sumX / area;
+		centroid[1] = originY + sumY / area;
+		return area;
+	}
+
+	//middle of the box around count vertices from start
+	static void computeMidpoint(float[] vertices, int start, int count, float[] midpoint) {
+		float minX = vertices[start * 2];
+		float minY = vertices[start * 2 + 1];
+		float maxX = minX;
+		float maxY = minY;
+		for (int i = start + 1; i < start + count; i++) {
+			minX = Math.min(minX, vertices[i * 2]);
+			minY = Math.min(minY, vertices[i * 2 + 1]);
+			maxX = Math.max(maxX, vertices[i * 2]);
+			maxY = Math.max(maxY, vertices[i * 2 + 1]);
+		}
+
+		midpoint[0] = (minX + maxX) / 2;
+		midpoint[1] = (minY + maxY) / 2;
+	}
 }
@@ -0,0 +1,149 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.Contact;
+import com.badlogic.gdx.physics.box2d.ContactImpulse;
+import com.badlogic.gdx.physics.box2d.ContactListener;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.Manifold;
+import java.util.Arrays;
+
+//queues Box2D's begin and end contacts and hands them to handlers registered by category pair on dispatch()
+public final class ContactEventQueue implements ContactListener {
+	public interface Handler {
+		//bodies come in the order their categories were registered in
+		void handle(Body bodyA, Body bodyB);
+	}
+
+	public static final int BEGIN = 0;
+	public static final int END = 1;
+
+	private static final int CATEGORIES = 16; //one per bit of Filter.categoryBits
+
+	private final Handler[] handlers;
+	private final boolean[] swapped; //the pair was registered the other way around
+
+	private int size;
+	private int[] eventPairs; //index into handlers
+	private Body[] bodiesA;
+	private Body[] bodiesB;
+
+	public ContactEventQueue() {
+		handlers = new Handler[2 * CATEGORIES * CATEGORIES];
+		swapped = new boolean[handlers.length];
+
+		size = 0;
+		eventPairs = new int[64];
+		bodiesA = new Body[64];
+		bodiesB = new Body[64];
+	}
+
+	//type is BEGIN or END, and each category a single bit; replaces any handler already set for the pair
+	public void setHandler(int type, short categoryA, short categoryB, Handler handler) {
+		int a = categoryIndex(categoryA);
+		int b = categoryIndex(categoryB);
+		if (a < 0 || b < 0) throw new IllegalArgumentException("Categories must have a bit set");
+
+		handlers[tableIndex(type, a, b)] = handler;
+		swapped[tableIndex(type, a, b)] = false;
+		if (a != b) {
+			handlers[tableIndex(type, b, a)] = handler;
+			swapped[tableIndex(type, b, a)] = true;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//by type and category pair rather than Box2D's contact order; events queued by handlers are handled after the rest
+	public void dispatch() {
+		sort();
+
+		for (int i = 0; i < size; i++) {
+			Handler handler = handlers[eventPairs[i]];
+			if (handler != null) handler.handle(bodiesA[i], bodiesB[i]); //unless it was unset since
+		}
+		clear();
+	}
+
+	//drops every queued event without handling it
+	public void clear() {
+		Arrays.fill(bodiesA, 0, size, null);
+		Arrays.fill(bodiesB, 0, size, null);
+		size = 0;
+	}
+
+	//insertion sort by handler, stable so events for the same pair keep the order they happened in
+	private void sort() {
+		for (int i = 1; i < size; i++) {
+			int pair = eventPairs[i];
+			Body bodyA = bodiesA[i];
+			Body bodyB = bodiesB[i];
+
+			int j = i - 1;
+			while (j >= 0 && eventPairs[j] > pair) {
+				eventPairs[j + 1] = eventPairs[j];
+				bodiesA[j + 1] = bodiesA[j];
+				bodiesB[j + 1] = bodiesB[j];
+				j--;
+			}
+
+			eventPairs[j + 1] = pair;
+			bodiesA[j + 1] = bodyA;
+			bodiesB[j + 1] = bodyB;
+		}
+	}
+
+	// ContactListener //////////////////////////////////////////////////
+
+	@Override public void beginContact(Contact contact) {
+		queue(BEGIN, contact.getFixtureA(), contact.getFixtureB());
+	}
+
+	@Override public void endContact(Contact contact) {
+		if (contact.getFixtureA() == null || contact.getFixtureB() == null) return;
+
+		queue(END, contact.getFixtureA(), contact.getFixtureB());
+	}
+
+	@Override public void preSolve(Contact contact, Manifold oldManifold) { }
+
+	@Override public void postSolve(Contact contact, ContactImpulse impulse) { }
+
+	private void queue(int type, Fixture fixtureA, Fixture fixtureB) {
+		int a = categoryIndex(fixtureA.getFilterData().categoryBits);
+		int b = categoryIndex(fixtureB.getFilterData().categoryBits);
+		if (a < 0 || b < 0) return;
+
+		int index = tableIndex(type, a, b);
+		if (handlers[index] == null) return;
+
+		if (size == eventPairs.length) {
+			int capacity = size * 2;
+			eventPairs = Arrays.copyOf(eventPairs, capacity);
+			bodiesA = Arrays.copyOf(bodiesA, capacity);
+			bodiesB = Arrays.copyOf(bodiesB, capacity);
+		}
+
+		if (swapped[index]) {
+			eventPairs[size] = tableIndex(type, b, a); //as registered, so either way around sorts the same
+			bodiesA[size] = fixtureB.getBody();
+			bodiesB[size] = fixtureA.getBody();
+		} else {
+			eventPairs[size] = index;
+			bodiesA[size] = fixtureA.getBody();
+			bodiesB[size] = fixtureB.getBody();
+		}
+		size++;
+	}
+
+	//the lowest bit set, or -1 for none
+	private static int categoryIndex(short categoryBits) {
+		return categoryBits != 0 ? Integer.numberOfTrailingZeros(categoryBits & 0xFFFF) : -1;
+	}
+
+	private static int tableIndex(int type, int a, int b) {
+		return (type * CATEGORIES + a) * CATEGORIES + b;
+	}
+}
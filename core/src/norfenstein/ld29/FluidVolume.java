@@ -0,0 +1,38 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.math.Rectangle;
+
+//an axis aligned body of fluid managed by a FluidVolumeManager; the controller applies the fluid to whatever is inside
+public final class FluidVolume {
+	private final Rectangle bounds;
+	private final BuoyancyController controller;
+	private WaterSurface surface;
+
+	FluidVolume(Rectangle bounds, BuoyancyController controller) {
+		this.bounds = new Rectangle(bounds);
+		this.controller = controller;
+
+		controller.setExtent(bounds.x, bounds.x + bounds.width);
+	}
+
+	//don't modify
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	public BuoyancyController getController() {
+		return controller;
+	}
+
+	//gives the volume waves across its full width, stepped by the manager
+	public WaterSurface createSurface(int columnCount) {
+		surface = new WaterSurface(bounds.x, bounds.width, columnCount);
+		controller.setWaterSurface(surface);
+		return surface;
+	}
+
+	//null if the surface is flat
+	public WaterSurface getSurface() {
+		return surface;
+	}
+}
@@ -0,0 +1,100 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.QueryCallback;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+
+//fluid volumes whose members are found each step by asking Box2D's broadphase what overlaps them
+public final class FluidVolumeManager {
+	private final World world;
+	private final short maskBits;
+	private final Array<FluidVolume> volumes;
+	private final MembershipQuery membershipQuery;
+
+	private class MembershipQuery implements QueryCallback {
+		BuoyancyController controller;
+
+		@Override public boolean reportFixture(Fixture fixture) {
+			Body body = fixture.getBody();
+			if (controller.touchBody(body)) return true; //already in, most likely from one of its other fixtures
+
+			if ((fixture.getFilterData().categoryBits & maskBits) != 0 && body.getType() == BodyType.DynamicBody) {
+				controller.addBody(body);
+			}
+			return true;
+		}
+	}
+
+	//only fixtures with a category in maskBits are affected by the fluid
+	public FluidVolumeManager(World world, short maskBits) {
+		this.world = world;
+		this.maskBits = maskBits;
+
+		volumes = new Array<FluidVolume>(true, 4);
+		membershipQuery = new MembershipQuery();
+	}
+
+	//the surface is given separately from the bounds, so it can sit anywhere relative to them
+	public FluidVolume addVolume(Rectangle bounds, float surfaceHeight, Vector2 fluidVelocity, float fluidDensity, float linearDrag, float angularDrag) {
+		BuoyancyController controller = new BuoyancyController(
+			new Vector2(0, 1), //surface normal
+			fluidVelocity,
+			world.getGravity(),
+			surfaceHeight,
+			fluidDensity,
+			linearDrag,
+			angularDrag
+		);
+
+		FluidVolume volume = new FluidVolume(bounds, controller);
+		volumes.add(volume);
+		return volume;
+	}
+
+	public void removeVolume(FluidVolume volume) {
+		volumes.removeValue(volume, true);
+	}
+
+	public int getVolumeCount() {
+		return volumes.size;
+	}
+
+	public FluidVolume getVolume(int index) {
+		return volumes.get(index);
+	}
+
+	//Box2D reuses destroyed Body objects, so bodies have to be taken out of every volume before they're destroyed
+	public void removeBody(Body body) {
+		for (int i = 0; i < volumes.size; i++) {
+			volumes.get(i).getController().removeBody(body);
+		}
+	}
+
+	public void step(float delta) {
+		for (int i = 0; i < volumes.size; i++) {
+			FluidVolume volume = volumes.get(i);
+			BuoyancyController controller = volume.getController();
+			Rectangle bounds = volume.getBounds();
+
+			float top = bounds.y + bounds.height;
+			if (volume.getSurface() != null) {
+				volume.getSurface().step(delta);
+				top += volume.getSurface().getMaxHeight(); //crests can reach above the bounds
+			}
+
+			controller.beginMembership();
+			membershipQuery.controller = controller;
+			world.QueryAABB(membershipQuery, bounds.x, bounds.y, bounds.x + bounds.width, top);
+			controller.endMembership();
+
+			controller.step();
+		}
+
+		membershipQuery.controller = null;
+	}
+}
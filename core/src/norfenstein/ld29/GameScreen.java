@@ -4,26 +4,32 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
-import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
 import com.badlogic.gdx.physics.box2d.BodyDef;
 import com.badlogic.gdx.physics.box2d.CircleShape;
-import com.badlogic.gdx.physics.box2d.Contact;
-import com.badlogic.gdx.physics.box2d.ContactImpulse;
-import com.badlogic.gdx.physics.box2d.ContactListener;
 import com.badlogic.gdx.physics.box2d.EdgeShape;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.FixtureDef;
-import com.badlogic.gdx.physics.box2d.Joint;
-import com.badlogic.gdx.physics.box2d.Manifold;
 import com.badlogic.gdx.physics.box2d.PolygonShape;
 import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.physics.box2d.joints.RopeJoint;
 import com.badlogic.gdx.physics.box2d.joints.RopeJointDef;
+import com.badlogic.gdx.utils.BooleanArray;
+import com.badlogic.gdx.utils.TimeUtils;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import norfenstein.ld29.RenderableBody.FillType;
+import norfenstein.util.XorShiftRandom;
+import norfenstein.util.entities.Component;
 import norfenstein.util.entities.EntityStore.Entity;
 import norfenstein.util.entities.EntityStore;
+import norfenstein.util.entities.SystemScheduler;
+import norfenstein.util.entities.TaskRunner;
+import norfenstein.util.game.FrameProfiler;
+import norfenstein.util.game.PhaseTimer;
 import norfenstein.util.game.ViewportScreen;
 
 public class GameScreen extends ViewportScreen {
@@ -33,11 +39,29 @@ public class GameScreen extends ViewportScreen {
 		ALIVE,
 		SPAWNABLE
 	}
+	private static final FishState[] FISH_STATES = FishState.values(); //values() copies every time
 
 	private World world;
 	private EntityStore entityStore;
 	private ShapeRenderSystem shapeRenderSystem;
+	private TransformHistorySystem transformHistorySystem; //only when rendering
 	private FishSystem fishSystem;
+	private final TaskRunner taskRunner;
+	private SystemScheduler systemScheduler; //simulation systems; rendering stays on the GL thread
+	private PhaseTimer phaseTimer;
+	private FrameProfiler profiler;
+	private int drawnMetric;
+	private int culledMetric;
+
+	//names for the phases of step(), in the order they run
+	public static final String[] STEP_PHASES = { "input", "buoyancy", "world", "rules", "spawn", "systems", "flush" };
+	private static final int PHASE_INPUT = 0;
+	private static final int PHASE_BUOYANCY = 1;
+	private static final int PHASE_WORLD = 2;
+	private static final int PHASE_RULES = 3;
+	private static final int PHASE_SPAWN = 4;
+	private static final int PHASE_SYSTEMS = 5;
+	private static final int PHASE_FLUSH = 6;
 
 	private final float UNITS_PER_SCREEN = 40f;
 	private final float WATER_DEPTH = 10f;
@@ -47,6 +71,8 @@ public class GameScreen extends ViewportScreen {
 	private final float GRAVITY = 15f;
 	private final float WATER_DENSITY = 2f;
 	private final float WATER_DRAG = 1.5f;
+	private final int WATER_COLUMNS = 200;
+	private final float SPLASH_SCALE = 0.5f; //share of the bird's speed given to the water it hits
 
 	private final short COLLISION_NONE  = 0;
 	private final short COLLISION_WALL  = 1 << 0;
@@ -54,79 +80,227 @@ public class GameScreen extends ViewportScreen {
 	private final short COLLISION_FISH  = 1 << 2;
 	private final short COLLISION_WATER = 1 << 3;
 
-	private Body anchorBody; //static body without fixtures for connecting joints to the world
+	private Body anchorBody; //static body without fixtures that the diving rope hangs from, moved to where each dive starts
 	private Body birdBody;
 	private Body waterBody;
 	private Body fishBody;
+	private Body spareFishBody; //the last fish's body, switched off until the next fish takes it over
 	private Entity fishEntity;
 	private float flapImpulse;
-	private Joint divingJoint;
-	private BuoyancyController buoyancyController;
+	private RopeJoint divingJoint; //kept for the whole game and left slack between dives
+	private boolean diving;
+	private float divingAnchorX;
+	private float divingAnchorY;
+	private float slackLength; //longer than any distance in the field, so a rope this long never pulls
+	private FluidVolumeManager fluidVolumes;
+	private ContactEventQueue contactEvents;
+	private WaterSurface waterSurface;
 	private FishState fishState;
 
+	//playing field in world units, fixed when the simulation is created
+	private float fieldWidth;
+	private float fieldHeight;
+	private float wallInset; //one pixel, so the walls stay on screen
+
+	//reused for every fish spawned; Box2D copies the shape into each fixture it creates
+	private CircleShape fishShape;
+	private FixtureDef fishFixtureDef;
+	private BodyDef fishBodyDef;
+	private final Component[] fishComponents = new Component[3];
+
 	private SoundManager soundManager;
 
+	//presses and releases since the last step, applied at the start of the next so input lines up with steps
+	private final BooleanArray pendingInput = new BooleanArray(true, 8);
+	private boolean inputHeld;
 	private float inputTimer;
 
+	private long stepCount;
+	private int fishComponentId;
+	private long seed;
+	private XorShiftRandom random; //everything random in the simulation comes from here
+	private Replay recording;
+	private SimulationSnapshot checksumSnapshot;
+
+	public GameScreen(TaskRunner taskRunner) {
+		this.taskRunner = taskRunner;
+	}
+
 	public void create() {
 		initializeViewport(Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), FixedAxis.HORIZONTAL, UNITS_PER_SCREEN);
 
 		soundManager = new SoundManager();
 		soundManager.create();
 
-		world = new World(new Vector2(0, -GRAVITY), true);
-		world.setContactListener(new CollisionHandler());
+		createSimulation(
+			pixelsToUnits(getViewport().getViewportWidth()),
+			pixelsToUnits(getViewport().getViewportHeight()),
+			pixelsToUnits(1),
+			TimeUtils.millis());
+
+		transformHistorySystem = new TransformHistorySystem(entityStore);
+		shapeRenderSystem = new ShapeRenderSystem(entityStore, getCamera(), world);
+		shapeRenderSystem.setTransformHistory(transformHistorySystem);
+	}
+
+	//without a GL context or audio, laid out as for a screen of the given size; only step() may be called afterwards
+	public void createHeadless(int width, int height, long seed) {
+		float pixelsPerUnit = width / UNITS_PER_SCREEN; //what the horizontally fixed viewport would work out
+
+		createSimulation(UNITS_PER_SCREEN, height / pixelsPerUnit, 1 / pixelsPerUnit, seed);
+	}
+
+	//set up as the replay's recording was, so its input and checksums can be played back
+	public void createHeadless(Replay replay) {
+		createSimulation(replay.getFieldWidth(), replay.getFieldHeight(), replay.getWallInset(), replay.getSeed());
+	}
+
+	//records input and per-step checksums from here on; only before the first step
+	public Replay startRecording() {
+		if (stepCount != 0) throw new IllegalStateException("Recording has to start before the first step");
+
+		recording = new Replay(seed, fieldWidth, fieldHeight, wallInset);
+		return recording;
+	}
+
+	//a hash of everything saveSnapshot() writes
+	public int getChecksum() {
+		if (checksumSnapshot == null) checksumSnapshot = new SimulationSnapshot(getSnapshotCapacity());
+
+		saveSnapshot(checksumSnapshot);
+		return checksumSnapshot.getChecksum();
+	}
+
+	//a press or release of the one button, taking effect at the start of the next step
+	public void queueInput(boolean pressed) {
+		pendingInput.add(pressed);
+	}
+
+	//times each phase of step() until set back to null
+	public void setPhaseTimer(PhaseTimer phaseTimer) {
+		this.phaseTimer = phaseTimer;
+	}
+
+	//after create() or createHeadless(), and after setPhaseTimer() if there is one
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+
+		if (phaseTimer == null) phaseTimer = new PhaseTimer(STEP_PHASES);
+		profiler.addPhaseTimer(phaseTimer, "step.");
+
+		systemScheduler.setTimed(true);
+		profiler.addScheduler(systemScheduler, "system.");
+
+		if (shapeRenderSystem != null) {
+			drawnMetric = profiler.addMetric("render.drawn", FrameProfiler.Unit.COUNT);
+			culledMetric = profiler.addMetric("render.culled", FrameProfiler.Unit.COUNT);
+		}
+	}
+
+	private void createSimulation(float fieldWidth, float fieldHeight, float wallInset, long seed) {
+		this.fieldWidth = fieldWidth;
+		this.fieldHeight = fieldHeight;
+		this.wallInset = wallInset;
+		this.seed = seed;
+		random = new XorShiftRandom(seed);
+
+		//no sleeping or warm starting, since libGDX can't read or write sleep timers or cached impulses for snapshots
+		world = new World(new Vector2(0, -GRAVITY), false);
+		world.setWarmStarting(false);
+		contactEvents = new ContactEventQueue();
+		world.setContactListener(contactEvents);
+		addContactHandlers();
 
 		entityStore = new EntityStore();
+		fishComponentId = entityStore.getComponentId(Fish.class);
 
-		shapeRenderSystem = new ShapeRenderSystem(entityStore, getCamera());
-		fishSystem = new FishSystem(entityStore);
+		fishSystem = new FishSystem(entityStore, random);
+		fishSystem.setParallel(taskRunner); //only splits up once there are more fish than fit in a chunk
 
-		entityStore.addListener(shapeRenderSystem);
-		entityStore.addListener(fishSystem);
+		systemScheduler = new SystemScheduler(taskRunner);
+		systemScheduler.add(fishSystem);
 
-		divingJoint = null;
 		flapImpulse = MAX_FLAP_IMPULSE;
 		fishState = FishState.SPAWNABLE;
 
+		createFishDefs();
+
 		addAnchor();
 		addWalls();
 		addBird();
+		addDivingJoint();
 		addWater();
 
-		buoyancyController = new BuoyancyController(
-			new Vector2(0, 1), //surface normal
+		fluidVolumes = new FluidVolumeManager(world, (short)(COLLISION_BIRD | COLLISION_FISH));
+		FluidVolume water = fluidVolumes.addVolume(
+			new Rectangle(-fieldWidth / 2f, -fieldHeight / 2f, fieldWidth, WATER_DEPTH * 2), //same as the water body
+			-fieldHeight / 2f + WATER_DEPTH * 2, //surface height, at the top of the water body
 			new Vector2(0, 0), //fluid velocity
-			world.getGravity(),
-			0, //surface height
 			WATER_DENSITY, //fluid density
 			WATER_DRAG, //linear drag
 			0f //angular drag
 		);
+		water.getController().setPrecision(BuoyancyController.Precision.FAST);
+		waterSurface = water.createSurface(WATER_COLUMNS);
 	}
 
 	public void dispose() {
 		world.dispose();
-		shapeRenderSystem.dispose();
-		soundManager.dispose();
+		if (shapeRenderSystem != null) shapeRenderSystem.dispose();
+		if (transformHistorySystem != null) transformHistorySystem.dispose();
+		fishSystem.dispose();
+		fishShape.dispose();
+		if (soundManager != null) soundManager.dispose();
+	}
+
+	public long getStepCount() {
+		return stepCount;
 	}
 
 	@Override public void step(float delta) {
+		stepCount++;
+
+		if (phaseTimer != null) phaseTimer.start(PHASE_INPUT);
+		for (int i = 0; i < pendingInput.size; i++) {
+			boolean pressed = pendingInput.get(i);
+			if (recording != null) recording.recordInput(stepCount, pressed);
+
+			if (pressed) {
+				press();
+			} else {
+				release();
+			}
+		}
+		pendingInput.clear();
+
+		if (inputHeld) {
+			if (inputTimer <= 0) {
+				birdBody.applyForceToCenter(0, -DIVE_FORCE, true);
+			} else {
+				inputTimer -= delta;
+			}
+		}
+
+		if (phaseTimer != null) phaseTimer.start(PHASE_BUOYANCY);
+		fluidVolumes.step(delta); //just before the world step uses its forces, so none are left pending between steps
+
+		if (phaseTimer != null) phaseTimer.start(PHASE_WORLD);
 		world.step(delta, 6, 2);
+		world.step(0, 0, 0); //brings whether contacts are touching up to where the bodies ended up, as a restore does
+
+		if (phaseTimer != null) phaseTimer.start(PHASE_RULES);
+		contactEvents.dispatch();
 
 		if (flapImpulse < MAX_FLAP_IMPULSE) {
 			flapImpulse += MAX_FLAP_IMPULSE * delta / FLAP_REGEN_TIME;
 			if (flapImpulse > MAX_FLAP_IMPULSE) flapImpulse = MAX_FLAP_IMPULSE;
 		}
 
-		if (divingJoint != null) {
-			if (birdBody.getPosition().y >= anchorBody.getWorldPoint(divingJoint.getAnchorA()).y) {
-				destroyDivingJoint();
-			}
+		if (diving && birdBody.getPosition().y >= divingAnchorY) {
+			stopDiving();
 		}
 
-		buoyancyController.step();
-
+		if (phaseTimer != null) phaseTimer.start(PHASE_SPAWN);
 		switch (fishState) {
 			case GONE:
 				destroyFish();
@@ -140,30 +314,55 @@ public class GameScreen extends ViewportScreen {
 				break;
 		}
 
-		fishSystem.process(delta);
+		contactEvents.dispatch(); //destroying the fish can end its contacts
+
+		if (phaseTimer != null) phaseTimer.start(PHASE_SYSTEMS);
+		systemScheduler.update(delta); //Box2D isn't thread safe, so the world and buoyancy above always step serially
+
+		if (phaseTimer != null) phaseTimer.start(PHASE_FLUSH);
+		entityStore.flushCommands(); //anything systems deferred during the step
+		if (transformHistorySystem != null) transformHistorySystem.process(); //after everything that moves or replaces bodies
+
+		if (recording != null) recording.recordStep(stepCount, getChecksum());
+
+		if (phaseTimer != null) phaseTimer.stop();
 	}
 
-	@Override public void render(float delta) {
+	@Override public void render(float delta, float alpha) {
 		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
-		shapeRenderSystem.process();
+		shapeRenderSystem.process(alpha);
+
+		if (profiler != null) {
+			profiler.set(drawnMetric, shapeRenderSystem.getDrawnCount());
+			profiler.set(culledMetric, shapeRenderSystem.getCulledCount());
+		}
 	}
 
 	@Override public void resize(int width, int height) {
 		super.resize(width, height);
 	}
 
-	@Override public void processInput(float delta) {
-		if (Gdx.input.isKeyPressed(Input.Keys.SPACE) || Gdx.input.isTouched(0)) {
-			if (inputTimer <= 0) {
-				birdBody.applyForce(new Vector2(0, -DIVE_FORCE), birdBody.getWorldCenter(), true);
-			} else {
-				inputTimer -= delta;
-			}
+	//a short press flaps, while holding dives and letting go swings the bird back up on a rope
+	private void press() {
+		if (diving) stopDiving();
+		inputTimer = 0.3f;
+		inputHeld = true;
+	}
+
+	private void release() {
+		if (!inputHeld) return;
+		inputHeld = false;
+
+		if (inputTimer > 0) {
+			flap();
+		} else {
+			dive();
 		}
 	}
 
 	private void flap() {
-		birdBody.applyLinearImpulse(new Vector2(0, flapImpulse), birdBody.getWorldCenter(), true);
+		Vector2 center = birdBody.getWorldCenter();
+		birdBody.applyLinearImpulse(0, flapImpulse, center.x, center.y, true);
 		flapImpulse = 0f;
 	}
 
@@ -176,8 +375,7 @@ public class GameScreen extends ViewportScreen {
 				return true;
 
 			case Input.Keys.SPACE:
-				if (divingJoint != null) destroyDivingJoint();
-				inputTimer = 0.3f;
+				queueInput(true);
 				return true;
 		}
 
@@ -187,11 +385,7 @@ public class GameScreen extends ViewportScreen {
 	@Override public boolean keyUp(int keycode) {
 		switch (keycode) {
 			case Input.Keys.SPACE:
-				if (inputTimer > 0) {
-					flap();
-				} else {
-					addDivingJoint();
-				}
+				queueInput(false);
 				return true;
 		}
 
@@ -199,17 +393,12 @@ public class GameScreen extends ViewportScreen {
 	}
 
 	@Override public boolean touchDown(int screenX, int screenY, int pointer, int button) {
-		if (divingJoint != null) destroyDivingJoint();
-		inputTimer = 0.3f;
+		queueInput(true);
 		return true;
 	}
 
 	@Override public boolean touchUp(int screenX, int screenY, int pointer, int button) {
-		if (inputTimer > 0) {
-			flap();
-		} else {
-			addDivingJoint();
-		}
+		queueInput(false);
 		return true;
 	}
 
@@ -260,63 +449,96 @@ public class GameScreen extends ViewportScreen {
 		birdBody = body;
 	}
 
+	private void createFishDefs() {
+		fishShape = new CircleShape();
+
+		fishFixtureDef = new FixtureDef();
+		fishFixtureDef.shape = fishShape;
+		fishFixtureDef.isSensor = true;
+		fishFixtureDef.filter.categoryBits = COLLISION_FISH;
+		fishFixtureDef.filter.maskBits = COLLISION_WALL | COLLISION_WATER | COLLISION_BIRD;
+		fishFixtureDef.density = WATER_DENSITY; //fish should have neutral buoyancy
+		fishFixtureDef.restitution = 0.0f;
+		fishFixtureDef.friction = 0;
+
+		fishBodyDef = new BodyDef();
+		fishBodyDef.type = BodyType.DynamicBody;
+		fishBodyDef.fixedRotation = true;
+	}
+
 	private void addFish() {
-		float fishSize = MathUtils.random();
-		boolean goingRight = MathUtils.randomBoolean();
+		float fishSize = random.nextFloat();
+		boolean goingRight = random.nextBoolean();
 
-		CircleShape shape = new CircleShape();
-		shape.setRadius(0.75f + 1.5f * fishSize);
+		Fish fish = createFish(
+			0.75f + 1.5f * fishSize,
+			goingRight ? -fieldWidth / 2 : fieldWidth / 2,
+			waterBody.getPosition().y + WATER_DEPTH / 2 - fishSize * WATER_DEPTH);
+		fish.timer = 0;
+		fish.direction = goingRight ? 1 : -1;
+		fish.minImpulse = 30f + fishSize * 60;
+		fish.maxImpulse = 60f + fishSize * 120;
+	}
 
-		FixtureDef fixtureDef = new FixtureDef();
-		fixtureDef.shape = shape;
-		fixtureDef.isSensor = true;
-		fixtureDef.filter.categoryBits = COLLISION_FISH;
-		fixtureDef.filter.maskBits = COLLISION_WALL | COLLISION_WATER | COLLISION_BIRD;
-		fixtureDef.density = WATER_DENSITY; //fish should have neutral buoyancy
-		fixtureDef.restitution = 0.0f;
-		fixtureDef.friction = 0;
+	//the rest of the fish is left for the caller to fill in
+	private Fish createFish(float radius, float x, float y) {
+		Body body;
+		if (spareFishBody != null) {
+			//libGDX 1.0 never pools destroyed fixtures, so a fresh body would allocate every spawn
+			body = spareFishBody;
+			spareFishBody = null;
+
+			body.getFixtureList().get(0).getShape().setRadius(radius); //before it's active, so its broadphase bounds are right
+			body.resetMassData();
+			body.setTransform(x, y, 0);
+			body.setLinearVelocity(0, 0);
+			body.setAngularVelocity(0);
+			body.setActive(true);
+			body.setAwake(true);
+		} else {
+			fishShape.setRadius(radius);
 
-		BodyDef bodyDef = new BodyDef();
-		bodyDef.type = BodyType.DynamicBody;
-		bodyDef.fixedRotation = true;
-		bodyDef.position.x = goingRight ?
-			-pixelsToUnits(getViewport().getViewportWidth()) / 2 :
-			pixelsToUnits(getViewport().getViewportWidth()) / 2;
-		bodyDef.position.y = waterBody.getPosition().y + WATER_DEPTH / 2 - fishSize * WATER_DEPTH;
+			fishBodyDef.position.x = x;
+			fishBodyDef.position.y = y;
 
-		Body body = world.createBody(bodyDef);
-		body.createFixture(fixtureDef);
+			body = world.createBody(fishBodyDef);
+			body.createFixture(fishFixtureDef);
+		}
 
-		PhysicsBody physicsBody = new PhysicsBody();
+		PhysicsBody physicsBody = entityStore.obtainComponent(PhysicsBody.class);
 		physicsBody.body = body;
 
-		RenderableBody renderableBody = new RenderableBody();
+		RenderableBody renderableBody = entityStore.obtainComponent(RenderableBody.class);
 		renderableBody.fill = FillType.LINE;
 		renderableBody.color = Color.BLUE;
 
-		Fish fish = new Fish();
-		fish.timer = 0;
-		fish.direction = goingRight ? 1 : -1;
-		fish.minImpulse = 30f + fishSize * 60;
-		fish.maxImpulse = 60f + fishSize * 120;
+		Fish fish = entityStore.obtainComponent(Fish.class);
 
-		Entity entity = entityStore.new Entity(physicsBody, renderableBody, fish);
+		fishComponents[0] = physicsBody;
+		fishComponents[1] = renderableBody;
+		fishComponents[2] = fish;
+		Entity entity = entityStore.obtainEntity(fishComponents); //not varargs, which would allocate an array per call
+		Arrays.fill(fishComponents, null);
 		body.setUserData(entity);
  
 		fishBody = body;
 		fishEntity = entity;
 
 		fishState = FishState.ALIVE;
+		return fish;
 	}
 
 	private void destroyFish() {
 		if (fishEntity != null) {
-			entityStore.removeEntity(fishEntity);
+			entityStore.freeEntity(fishEntity);
 			fishEntity = null;
 		}
 
 		if (fishBody != null) {
-			world.destroyBody(fishBody);
+			fluidVolumes.removeBody(fishBody);
+			fishBody.setUserData(null);
+			fishBody.setActive(false); //ends its contacts and leaves the broadphase, like destroying it would
+			spareFishBody = fishBody;
 			fishBody = null;
 		}
 	}
@@ -324,34 +546,34 @@ public class GameScreen extends ViewportScreen {
 	private void addWalls() {
 		//Bottom
 		addWall(0.0f,
-			pixelsToUnits(-getViewport().getViewportWidth() / 2f),
-			pixelsToUnits(-getViewport().getViewportHeight() / 2f + 1),
-			pixelsToUnits(getViewport().getViewportWidth() / 2f),
-			pixelsToUnits(-getViewport().getViewportHeight() / 2f + 1)
+			-fieldWidth / 2f,
+			-fieldHeight / 2f + wallInset,
+			fieldWidth / 2f,
+			-fieldHeight / 2f + wallInset
 		);
 
 		//Top
 		addWall(0.0f,
-			pixelsToUnits(-getViewport().getViewportWidth() / 2f),
-			pixelsToUnits(getViewport().getViewportHeight() / 2f - 1),
-			pixelsToUnits(getViewport().getViewportWidth() / 2f),
-			pixelsToUnits(getViewport().getViewportHeight() / 2f - 1)
+			-fieldWidth / 2f,
+			fieldHeight / 2f - wallInset,
+			fieldWidth / 2f,
+			fieldHeight / 2f - wallInset
 		);
 
 		//Left
 		addWall(1.0f,
-			pixelsToUnits(-getViewport().getViewportWidth() / 2f + 1),
-			pixelsToUnits(-getViewport().getViewportHeight() / 2f),
-			pixelsToUnits(-getViewport().getViewportWidth() / 2f + 1),
-			pixelsToUnits(getViewport().getViewportHeight() / 2f)
+			-fieldWidth / 2f + wallInset,
+			-fieldHeight / 2f,
+			-fieldWidth / 2f + wallInset,
+			fieldHeight / 2f
 		);
 
 		//Right
 		addWall(1.0f,
-			pixelsToUnits(getViewport().getViewportWidth() / 2f - 1),
-			pixelsToUnits(-getViewport().getViewportHeight() / 2f),
-			pixelsToUnits(getViewport().getViewportWidth() / 2f - 1),
-			pixelsToUnits(getViewport().getViewportHeight() / 2f)
+			fieldWidth / 2f - wallInset,
+			-fieldHeight / 2f,
+			fieldWidth / 2f - wallInset,
+			fieldHeight / 2f
 		);
 	}
 	private void addWall(float restitution, float x1, float y1, float x2, float y2) {
@@ -389,9 +611,7 @@ public class GameScreen extends ViewportScreen {
 
 	private void addWater() {
 		PolygonShape shape = new PolygonShape();
-		shape.setAsBox(
-			pixelsToUnits(getViewport().getViewportWidth() / 2f),
-			WATER_DEPTH);
+		shape.setAsBox(fieldWidth / 2f, WATER_DEPTH);
 
 		FixtureDef fixtureDef = new FixtureDef();
 		fixtureDef.shape = shape;
@@ -402,7 +622,7 @@ public class GameScreen extends ViewportScreen {
 		BodyDef bodyDef = new BodyDef();
 		bodyDef.type = BodyType.StaticBody;
 		bodyDef.position.x = 0;
-		bodyDef.position.y = -pixelsToUnits(getViewport().getViewportHeight() / 2f) + WATER_DEPTH;
+		bodyDef.position.y = -fieldHeight / 2f + WATER_DEPTH;
 
 		Body body = world.createBody(bodyDef);
 		body.createFixture(fixtureDef);
@@ -421,17 +641,16 @@ public class GameScreen extends ViewportScreen {
 		waterBody = body;
 	}
 
-	private void addDivingJoint() {
+	private void dive() {
 		if (birdBody.getLinearVelocity().y >= 0) return;
 
 		float fishX = fishBody != null ? fishBody.getPosition().x : 0f;
-		float fieldWidth = pixelsToUnits(getViewport().getViewportWidth());
 		float fieldEdgeX = fieldWidth / 2;
-		float fieldHeight = pixelsToUnits(getViewport().getViewportHeight());
 		float fieldEdgeY = fieldHeight / 2;
 		float bufferSize = 1f; //a little more than bird's radius, to avoid scraping the edge on the upswing
-		float birdX = birdBody.getPosition().x;
-		float birdY = birdBody.getPosition().y;
+		Vector2 birdPosition = birdBody.getPosition();
+		float birdX = birdPosition.x;
+		float birdY = birdPosition.y;
 		float targetY = fishBody != null ? fishBody.getPosition().y : waterBody.getPosition().y;
 		if (targetY > birdY) targetY = -fieldEdgeY + bufferSize;
 		float idealRadius = birdY - targetY;
@@ -452,89 +671,160 @@ public class GameScreen extends ViewportScreen {
 		} else {
 			return;
 		}
-		Vector2 anchorPoint = new Vector2(anchorX, birdBody.getPosition().y);
 
-		RopeJointDef ropeJointDef = new RopeJointDef();
-		ropeJointDef.bodyA = anchorBody;
-		ropeJointDef.bodyB = birdBody;
-		ropeJointDef.localAnchorA.set(anchorBody.getLocalPoint(anchorPoint));
-		ropeJointDef.localAnchorB.set(Vector2.Zero);
-		ropeJointDef.maxLength = birdBody.getPosition().dst(anchorPoint);
+		startDiving(anchorX, birdY, Math.abs(anchorX - birdX));
+	}
+
+	//made once, since libGDX allocates a wrapper for every joint; each dive moves its anchor and shortens it instead
+	private void addDivingJoint() {
+		slackLength = 2 * (fieldWidth + fieldHeight);
+
+		RopeJointDef jointDef = new RopeJointDef();
+		jointDef.bodyA = anchorBody;
+		jointDef.bodyB = birdBody;
+		jointDef.localAnchorA.set(0, 0); //Box2D's defaults are a unit either side
+		jointDef.localAnchorB.set(0, 0);
+		jointDef.maxLength = slackLength;
 
-		if (divingJoint != null) destroyDivingJoint();
-		divingJoint = world.createJoint(ropeJointDef);
+		divingJoint = (RopeJoint)world.createJoint(jointDef);
+		diving = false;
 	}
 
-	private void destroyDivingJoint() {
-		world.destroyJoint(divingJoint);
-		divingJoint = null;
+	private void startDiving(float anchorX, float anchorY, float maxLength) {
+		anchorBody.setTransform(anchorX, anchorY, 0);
+		divingJoint.setMaxLength(maxLength);
+
+		diving = true;
+		divingAnchorX = anchorX;
+		divingAnchorY = anchorY;
 	}
 
-	private class CollisionHandler implements ContactListener {
-		@Override public void preSolve(Contact contact, Manifold oldManifold) { }
+	private void stopDiving() {
+		divingJoint.setMaxLength(slackLength);
+		diving = false;
+	}
 
-		@Override public void postSolve(Contact contact, ContactImpulse impulse) { }
+	// Snapshots //////////////////////////////////////////////////
 
-		@Override public void beginContact(Contact contact) {
-			Body bodyA = contact.getFixtureA().getBody();
-			Body bodyB = contact.getFixtureB().getBody();
+	//enough for anything saveSnapshot() writes
+	public int getSnapshotCapacity() {
+		return 4 //version
+			+ 8 + 8 + 4 + 4 + 1 + 1 //step count, random state, flap impulse, input timer and whether it's held, fish state
+			+ SimulationSnapshot.BODY_BYTES //bird
+			+ 1 + 3 * 4 //diving joint
+			+ 1 + 4 + SimulationSnapshot.BODY_BYTES + 4 * 4 //fish
+			+ waterSurface.getStateBytes();
+	}
 
-			if (bodyA == waterBody) {
-				beginContactWaterAny(bodyB);
-				if (bodyB == birdBody) beginContactBirdWater(birdBody, waterBody);
-			} else if (bodyB == waterBody) {
-				beginContactWaterAny(bodyA);
-				if (bodyA == birdBody) beginContactBirdWater(birdBody, waterBody);
-			} else if ((bodyA == birdBody && bodyB == fishBody) || (bodyA == fishBody && bodyB == birdBody)) {
-				beginContactBirdFish(birdBody, fishBody);
-			}
+	//saves everything step() depends on that can change (the walls and water body never do); call between steps
+	public void saveSnapshot(SimulationSnapshot snapshot) {
+		ByteBuffer buffer = snapshot.beginWrite(stepCount);
+		buffer.putLong(stepCount);
+		buffer.putLong(random.getState());
+		buffer.putFloat(flapImpulse);
+		buffer.putFloat(inputTimer);
+		buffer.put(inputHeld ? (byte)1 : (byte)0);
+		buffer.put((byte)fishState.ordinal());
+
+		SimulationSnapshot.writeBody(buffer, birdBody);
+
+		buffer.put(diving ? (byte)1 : (byte)0);
+		if (diving) {
+			buffer.putFloat(divingAnchorX);
+			buffer.putFloat(divingAnchorY);
+			buffer.putFloat(divingJoint.getMaxLength());
 		}
 
-		@Override public void endContact(Contact contact) {
-			if (contact.getFixtureA() == null || contact.getFixtureB() == null) return;
+		buffer.put(fishBody != null ? (byte)1 : (byte)0);
+		if (fishBody != null) {
+			buffer.putFloat(fishBody.getFixtureList().get(0).getShape().getRadius());
+			SimulationSnapshot.writeBody(buffer, fishBody);
+
+			Fish fish = (Fish)fishEntity.getComponent(fishComponentId);
+			buffer.putFloat(fish.timer);
+			buffer.putInt(fish.direction);
+			buffer.putFloat(fish.minImpulse);
+			buffer.putFloat(fish.maxImpulse);
+		}
 
-			Body bodyA = contact.getFixtureA().getBody();
-			Body bodyB = contact.getFixtureB().getBody();
+		waterSurface.writeState(buffer);
+		snapshot.endWrite();
+	}
 
-			if (bodyA == waterBody) {
-				endContactWaterAny(bodyB);
-				if (bodyB == birdBody) {
-					endContactBirdWater(birdBody, waterBody);
-				} else if (bodyB == fishBody) {
-					endContactFishWater();
-				}
-			} else if (bodyB == waterBody) {
-				endContactWaterAny(bodyB);
-				if (bodyA == birdBody) {
-					endContactBirdWater(birdBody, waterBody);
-				} else if (bodyA == fishBody) {
-					endContactFishWater();
-				}
-			}
+	//stepping on from here matches stepping on from the save; doesn't allocate unless the fish changed size
+	public void restoreSnapshot(SimulationSnapshot snapshot) {
+		ByteBuffer buffer = snapshot.beginRead();
+		stepCount = buffer.getLong();
+		random.setState(buffer.getLong());
+		flapImpulse = buffer.getFloat();
+		inputTimer = buffer.getFloat();
+		inputHeld = buffer.get() != 0;
+		FishState savedFishState = FISH_STATES[buffer.get()];
+
+		SimulationSnapshot.readBody(buffer, birdBody);
+
+		if (buffer.get() != 0) {
+			float anchorX = buffer.getFloat();
+			float anchorY = buffer.getFloat();
+			startDiving(anchorX, anchorY, buffer.getFloat());
+		} else {
+			stopDiving();
 		}
 
-		private void beginContactWaterAny(Body any) {
-			buoyancyController.addBody(any);
-		}
-		private void beginContactBirdWater(Body bird, Body water) {
-			soundManager.getSplash().play();
-		}
-		private void beginContactBirdFish(Body bird, Body fish) {
-			fishState = FishState.EATEN;
-			soundManager.getGulp().play();
-		}
+		if (buffer.get() != 0) {
+			float radius = buffer.getFloat();
+			if (fishBody == null || fishBody.getFixtureList().get(0).getShape().getRadius() != radius) {
+				destroyFish();
+				createFish(radius, 0, 0);
+			}
+			SimulationSnapshot.readBody(buffer, fishBody);
 
-		private void endContactWaterAny(Body any) {
-			buoyancyController.removeBody(any);
+			Fish fish = (Fish)fishEntity.getComponent(fishComponentId);
+			fish.timer = buffer.getFloat();
+			fish.direction = buffer.getInt();
+			fish.minImpulse = buffer.getFloat();
+			fish.maxImpulse = buffer.getFloat();
+		} else {
+			destroyFish();
 		}
-		private void endContactBirdWater(Body bird, Body water) {
-			if (fishState == FishState.EATEN) {
-				fishState = FishState.SPAWNABLE;
+		fishState = savedFishState;
+
+		waterSurface.readState(buffer);
+		world.step(0, 0, 0); //updates contacts to the restored positions without moving anything
+		contactEvents.clear(); //which the restored state already accounts for, as it does switching off the old fish
+
+		if (transformHistorySystem != null) transformHistorySystem.reset(); //don't blend from where things were before
+	}
+
+	//handled after the world step, by collision category rather than by body
+	private void addContactHandlers() {
+		contactEvents.setHandler(ContactEventQueue.BEGIN, COLLISION_BIRD, COLLISION_WATER, new ContactEventQueue.Handler() {
+			@Override public void handle(Body bird, Body water) {
+				waterSurface.splash(bird.getPosition().x, 1f, bird.getLinearVelocity().y * SPLASH_SCALE);
+				if (soundManager != null) soundManager.getSplash().play();
 			}
-			soundManager.getSplash().play(0.3f);
-		}
-		private void endContactFishWater() {
-			fishState = FishState.GONE;
-		}
+		});
+
+		contactEvents.setHandler(ContactEventQueue.BEGIN, COLLISION_BIRD, COLLISION_FISH, new ContactEventQueue.Handler() {
+			@Override public void handle(Body bird, Body fish) {
+				fishState = FishState.EATEN;
+				if (soundManager != null) soundManager.getGulp().play();
+			}
+		});
+
+		contactEvents.setHandler(ContactEventQueue.END, COLLISION_BIRD, COLLISION_WATER, new ContactEventQueue.Handler() {
+			@Override public void handle(Body bird, Body water) {
+				if (fishState == FishState.EATEN) {
+					fishState = FishState.SPAWNABLE;
+				}
+				if (soundManager != null) soundManager.getSplash().play(0.3f);
+			}
+		});
+
+		contactEvents.setHandler(ContactEventQueue.END, COLLISION_FISH, COLLISION_WATER, new ContactEventQueue.Handler() {
+			@Override public void handle(Body fish, Body water) {
+				fishState = FishState.GONE;
+			}
+		});
 	}
 }
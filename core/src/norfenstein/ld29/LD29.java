@@ -1,23 +1,69 @@
 package norfenstein.ld29;
 
+import com.badlogic.gdx.Gdx;
+import norfenstein.util.entities.SerialTaskRunner;
+import norfenstein.util.entities.TaskRunner;
 import norfenstein.util.game.AbstractSwitchableGame;
+import norfenstein.util.game.FrameProfiler;
+import norfenstein.util.game.ProfilerOverlay;
 
 public final class LD29 extends AbstractSwitchableGame {
 	private final GameScreen gameScreen;
+	private final FrameProfiler profiler;
+	private ProfilerOverlay profilerOverlay;
+	private String recordingPath;
+	private Replay recording;
 
 	public LD29() {
+		this(new SerialTaskRunner());
+	}
+	public LD29(TaskRunner taskRunner) {
+		this(taskRunner, null);
+	}
+	//with a profiler, its metrics are shown over the game and written to profile.csv and profile.json on exit
+	public LD29(TaskRunner taskRunner, FrameProfiler profiler) {
 		super(1f / 60);
-		gameScreen = new GameScreen();
+		gameScreen = new GameScreen(taskRunner);
+		this.profiler = profiler;
+	}
+
+	//records the session as a Replay, written to the given local file on exit
+	public void setRecordingPath(String recordingPath) {
+		this.recordingPath = recordingPath;
 	}
 
 	@Override public void create() {
 		gameScreen.create();
+		if (recordingPath != null) recording = gameScreen.startRecording();
+
+		if (profiler != null) {
+			setProfiler(profiler);
+			gameScreen.setProfiler(profiler);
+
+			profilerOverlay = new ProfilerOverlay();
+			setProfilerOverlay(profilerOverlay);
+		}
 
 		switchScreen(gameScreen);
 	}
 
 	@Override public void dispose() {
 		gameScreen.dispose();
+
+		if (recording != null) {
+			Gdx.files.local(recordingPath).writeBytes(recording.toBytes(), false);
+		}
+
+		if (profiler != null) {
+			profilerOverlay.dispose();
+
+			StringBuilder csv = new StringBuilder();
+			profiler.writeCsv(csv);
+			Gdx.files.local("profile.csv").writeString(csv.toString(), false);
+
+			StringBuilder json = new StringBuilder();
+			profiler.writeJson(json);
+			Gdx.files.local("profile.json").writeString(json.toString(), false);
+		}
 	}
 }
-
@@ -0,0 +1,162 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.IntArray;
+import java.nio.ByteBuffer;
+
+//a recorded session: creation parameters, input as varints of steps since the last event (low bit set for presses), and each step's checksum
+public final class Replay {
+	private static final int MAGIC = 0x4C443239; //"LD29"
+	private static final int VERSION = 1;
+
+	private final long seed;
+	private final float fieldWidth;
+	private final float fieldHeight;
+	private final float wallInset;
+	private final ByteArray events;
+	private final IntArray checksums;
+	private long lastEventStep; //while recording
+
+	//playback position
+	private int readPosition;
+	private long nextEventStep; //-1 once every event has been read
+	private boolean nextEventPressed;
+
+	Replay(long seed, float fieldWidth, float fieldHeight, float wallInset) {
+		this(seed, fieldWidth, fieldHeight, wallInset, new ByteArray(true, 256), new IntArray(true, 3600));
+	}
+	private Replay(long seed, float fieldWidth, float fieldHeight, float wallInset, ByteArray events, IntArray checksums) {
+		this.seed = seed;
+		this.fieldWidth = fieldWidth;
+		this.fieldHeight = fieldHeight;
+		this.wallInset = wallInset;
+		this.events = events;
+		this.checksums = checksums;
+		lastEventStep = 0;
+		rewind();
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+	public float getFieldWidth() {
+		return fieldWidth;
+	}
+	public float getFieldHeight() {
+		return fieldHeight;
+	}
+	public float getWallInset() {
+		return wallInset;
+	}
+
+	public int getStepCount() {
+		return checksums.size;
+	}
+
+	//the simulation's checksum after the given step
+	public int getChecksum(long step) {
+		return checksums.get((int)(step - 1));
+	}
+
+	// Recording //////////////////////////////////////////////////
+
+	void recordInput(long step, boolean pressed) {
+		writeVarint(((step - lastEventStep) << 1) | (pressed ? 1 : 0));
+		lastEventStep = step;
+	}
+
+	void recordStep(long step, int checksum) {
+		if (step != checksums.size + 1) throw new IllegalStateException("Steps must be recorded in order, from the first");
+		checksums.add(checksum);
+	}
+
+	// Playback //////////////////////////////////////////////////
+
+	public void rewind() {
+		readPosition = 0;
+		nextEventStep = 0;
+		readEvent();
+	}
+
+	//queues the input recorded for the given step, which should be the step after the last one passed in
+	public void queueInput(long step, GameScreen gameScreen) {
+		while (nextEventStep == step) {
+			gameScreen.queueInput(nextEventPressed);
+			readEvent();
+		}
+	}
+
+	private void readEvent() {
+		if (readPosition >= events.size) {
+			nextEventStep = -1;
+			return;
+		}
+
+		long value = readVarint();
+		nextEventStep += value >>> 1;
+		nextEventPressed = (value & 1) != 0;
+	}
+
+	// Encoding //////////////////////////////////////////////////
+
+	public byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 + 3 * 4 + 4 + events.size + 4 + checksums.size * 4);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(seed);
+		buffer.putFloat(fieldWidth);
+		buffer.putFloat(fieldHeight);
+		buffer.putFloat(wallInset);
+
+		buffer.putInt(events.size);
+		buffer.put(events.items, 0, events.size);
+
+		buffer.putInt(checksums.size);
+		for (int i = 0; i < checksums.size; i++) {
+			buffer.putInt(checksums.get(i));
+		}
+
+		return buffer.array();
+	}
+
+	public static Replay fromBytes(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt() != MAGIC) throw new IllegalArgumentException("Not a replay");
+		if (buffer.getInt() != VERSION) throw new IllegalArgumentException("Replay was written by a different version");
+
+		long seed = buffer.getLong();
+		float fieldWidth = buffer.getFloat();
+		float fieldHeight = buffer.getFloat();
+		float wallInset = buffer.getFloat();
+
+		byte[] eventBytes = new byte[buffer.getInt()];
+		buffer.get(eventBytes);
+		ByteArray events = new ByteArray(eventBytes);
+
+		int stepCount = buffer.getInt();
+		IntArray checksums = new IntArray(true, Math.max(stepCount, 1));
+		for (int i = 0; i < stepCount; i++) {
+			checksums.add(buffer.getInt());
+		}
+
+		return new Replay(seed, fieldWidth, fieldHeight, wallInset, events, checksums);
+	}
+
+	//seven bits at a time, low first, with the high bit set on every byte but the last
+	private void writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			events.add((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		events.add((byte)value);
+	}
+
+	private long readVarint() {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = events.get(readPosition++);
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+}
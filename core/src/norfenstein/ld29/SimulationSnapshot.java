@@ -0,0 +1,92 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//reusable native-order buffer holding one saved tick of GameScreen's simulation; only for the same build and machine
+public final class SimulationSnapshot {
+	static final int VERSION = 1;
+	static final int BODY_BYTES = 6 * 4 + 1;
+
+	private final ByteBuffer buffer;
+	private int length;
+	private long tick;
+
+	public SimulationSnapshot(int capacity) {
+		buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		length = 0;
+	}
+
+	//bytes written by the last save, or 0 if there hasn't been one
+	public int getLength() {
+		return length;
+	}
+
+	//whatever the saver labelled it with, such as the step count
+	public long getTick() {
+		return tick;
+	}
+
+	//FNV-1a over the saved bytes, so equal snapshots always give the same value
+	public int getChecksum() {
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < length; i++) {
+			hash ^= buffer.get(i) & 0xFF;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	ByteBuffer beginWrite(long tick) {
+		this.tick = tick;
+		length = 0;
+		buffer.clear();
+		buffer.putInt(VERSION);
+		return buffer;
+	}
+
+	void endWrite() {
+		length = buffer.position();
+	}
+
+	ByteBuffer beginRead() {
+		if (length == 0) throw new IllegalStateException("Nothing has been saved into this snapshot");
+
+		buffer.limit(length);
+		buffer.position(0);
+		if (buffer.getInt() != VERSION) throw new IllegalStateException("Snapshot was written by a different version");
+		return buffer;
+	}
+
+	// Helpers //////////////////////////////////////////////////
+
+	//position, angle, velocities and whether it's awake
+	static void writeBody(ByteBuffer buffer, Body body) {
+		Vector2 position = body.getPosition();
+		buffer.putFloat(position.x);
+		buffer.putFloat(position.y);
+		buffer.putFloat(body.getAngle());
+
+		Vector2 velocity = body.getLinearVelocity();
+		buffer.putFloat(velocity.x);
+		buffer.putFloat(velocity.y);
+		buffer.putFloat(body.getAngularVelocity());
+
+		buffer.put(body.isAwake() ? (byte)1 : (byte)0);
+	}
+
+	static void readBody(ByteBuffer buffer, Body body) {
+		float x = buffer.getFloat();
+		float y = buffer.getFloat();
+		body.setTransform(x, y, buffer.getFloat());
+
+		float velocityX = buffer.getFloat();
+		float velocityY = buffer.getFloat();
+		body.setLinearVelocity(velocityX, velocityY);
+		body.setAngularVelocity(buffer.getFloat());
+
+		body.setAwake(buffer.get() != 0);
+	}
+}
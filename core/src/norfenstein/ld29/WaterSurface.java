@@ -0,0 +1,180 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.math.MathUtils;
+import java.nio.ByteBuffer;
+
+//height field for the top of a body of water, as columns coupled by the wave equation; offsets from the resting surface
+public final class WaterSurface {
+	private static final float MAX_COURANT = 0.5f; //wave travel per substep, in columns; keeps the integration stable
+	private static final float CALM = 0.01f; //offsets smaller than this count as flat
+	private static final float STILL = 1e-4f; //once every column is this close to rest, stepping stops until the next splash
+
+	private final float left;
+	private final float columnWidth;
+	private final int columnCount;
+
+	private final float[] heights;
+	private final float[] velocities;
+	private final float[] accelerations;
+
+	private float waveSpeed;
+	private float stiffness;
+	private float damping;
+	private boolean moving;
+
+	public WaterSurface(float left, float width, int columnCount) {
+		this.left = left;
+		this.columnCount = columnCount;
+		columnWidth = width / columnCount;
+
+		heights = new float[columnCount];
+		velocities = new float[columnCount];
+		accelerations = new float[columnCount];
+
+		waveSpeed = 8f;
+		stiffness = 4f;
+		damping = 1.5f;
+		moving = false;
+	}
+
+	//waveSpeed is in world units per second; stiffness pulls each column back to rest and damping slows it down
+	public void setWaveParameters(float waveSpeed, float stiffness, float damping) {
+		this.waveSpeed = waveSpeed;
+		this.stiffness = stiffness;
+		this.damping = damping;
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	public float getColumnX(int column) {
+		return left + (column + 0.5f) * columnWidth;
+	}
+
+	public float getColumnHeight(int column) {
+		return heights[column];
+	}
+
+	//for snapshots
+	public int getStateBytes() {
+		return 1 + columnCount * 2 * 4;
+	}
+
+	//heights and velocities of every column; the parameters and layout aren't included
+	public void writeState(ByteBuffer buffer) {
+		buffer.put(moving ? (byte)1 : (byte)0);
+		for (int i = 0; i < columnCount; i++) {
+			buffer.putFloat(heights[i]);
+			buffer.putFloat(velocities[i]);
+		}
+	}
+
+	public void readState(ByteBuffer buffer) {
+		moving = buffer.get() != 0;
+		for (int i = 0; i < columnCount; i++) {
+			heights[i] = buffer.getFloat();
+			velocities[i] = buffer.getFloat();
+		}
+	}
+
+	//pushes the columns within radius of x by the given vertical speed, as something hitting the water would
+	public void splash(float x, float radius, float speed) {
+		int first = Math.max(column(x - radius), 0);
+		int last = Math.min(column(x + radius), columnCount - 1);
+		for (int i = first; i <= last; i++) {
+			velocities[i] += speed;
+		}
+		if (first <= last) moving = true;
+	}
+
+	//offset from the resting surface at x, interpolated between column centers
+	public float getHeight(float x) {
+		float position = (x - left) / columnWidth - 0.5f;
+		if (position <= 0) return heights[0];
+		if (position >= columnCount - 1) return heights[columnCount - 1];
+
+		int column = (int)position;
+		float fraction = position - column;
+		return heights[column] + (heights[column + 1] - heights[column]) * fraction;
+	}
+
+	//offset of the highest column, or 0 if every column is at or below rest
+	public float getMaxHeight() {
+		float max = 0;
+		if (!moving) return max;
+
+		for (int i = 0; i < columnCount; i++) {
+			if (heights[i] > max) max = heights[i];
+		}
+		return max;
+	}
+
+	//rise over run of the surface at x
+	public float getSlope(float x) {
+		float position = (x - left) / columnWidth - 0.5f;
+		int column = MathUtils.clamp((int)position, 0, columnCount - 2);
+		return (heights[column + 1] - heights[column]) / columnWidth;
+	}
+
+	//true if the surface near x is close enough to flat that resting bodies don't need waking
+	public boolean isCalm(float x, float radius) {
+		if (!moving) return true;
+
+		int first = Math.max(column(x - radius), 0);
+		int last = Math.min(column(x + radius), columnCount - 1);
+		for (int i = first; i <= last; i++) {
+			if (Math.abs(heights[i]) > CALM) return false;
+		}
+		return true;
+	}
+
+	public void step(float delta) {
+		if (!moving || columnCount < 2) return;
+
+		int substeps = MathUtils.ceil(waveSpeed * delta / (columnWidth * MAX_COURANT));
+		if (substeps < 1) substeps = 1;
+		float dt = delta / substeps;
+
+		for (int i = 0; i < substeps; i++) {
+			substep(dt);
+		}
+
+		settle();
+	}
+
+	//flattens the surface once the waves have died away, which also keeps the columns out of denormal territory
+	private void settle() {
+		for (int i = 0; i < columnCount; i++) {
+			if (Math.abs(heights[i]) > STILL || Math.abs(velocities[i]) > STILL) return;
+		}
+
+		for (int i = 0; i < columnCount; i++) {
+			heights[i] = 0;
+			velocities[i] = 0;
+		}
+		moving = false;
+	}
+
+	private void substep(float dt) {
+		float coupling = waveSpeed * waveSpeed / (columnWidth * columnWidth);
+		int last = columnCount - 1;
+
+		// ends reflect, as if the water met a wall
+		accelerations[0] = coupling * (heights[1] - heights[0]) - stiffness * heights[0] - damping * velocities[0];
+		for (int i = 1; i < last; i++) {
+			accelerations[i] = coupling * (heights[i - 1] - 2 * heights[i] + heights[i + 1]) - stiffness * heights[i] - damping * velocities[i];
+		}
+		accelerations[last] = coupling * (heights[last - 1] - heights[last]) - stiffness * heights[last] - damping * velocities[last];
+
+		// semi-implicit Euler: velocities first, then heights from the new velocities
+		for (int i = 0; i < columnCount; i++) {
+			velocities[i] += accelerations[i] * dt;
+			heights[i] += velocities[i] * dt;
+		}
+	}
+
+	private int column(float x) {
+		return MathUtils.floor((x - left) / columnWidth);
+	}
+}
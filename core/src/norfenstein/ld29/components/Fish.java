@@ -6,5 +6,12 @@ public class Fish extends Component {
 	float timer;
 	int direction;
 	float minImpulse, maxImpulse;
+
+	@Override public void reset() {
+		timer = 0;
+		direction = 0;
+		minImpulse = 0;
+		maxImpulse = 0;
+	}
 }
 
@@ -5,5 +5,9 @@ import com.badlogic.gdx.physics.box2d.Body;
 
 public class PhysicsBody extends Component {
 	public Body body;
+
+	@Override public void reset() {
+		body = null;
+	}
 }
 
@@ -12,5 +12,10 @@ public class RenderableBody extends Component {
 
 	public FillType fill;
 	public Color color;
+
+	@Override public void reset() {
+		fill = null;
+		color = null;
+	}
 }
 
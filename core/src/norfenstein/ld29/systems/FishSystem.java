@@ -1,33 +1,119 @@
 package norfenstein.ld29;
 
-import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import norfenstein.util.XorShiftRandom;
 import norfenstein.util.entities.Component;
+import norfenstein.util.entities.ComponentSignature;
 import norfenstein.util.entities.DeltaIteratingSystem;
 import norfenstein.util.entities.EntityManager;
 import norfenstein.util.entities.EntityStore.Entity;
 
+//all randomness comes from the given generator, so a run can be repeated from its seed; it's drawn from once per step,
+//and each chunk of fish gets its own generator seeded from that draw and the chunk's index, the same way whether the
+//chunks run in parallel or not, so a run repeats on any task runner
 public class FishSystem extends DeltaIteratingSystem {
+	//impulses decided by one chunk in parallel mode, applied to the bodies once every chunk is done
+	private static final class ImpulseBatch {
+		final XorShiftRandom random;
+		final Array<Body> bodies;
+		final FloatArray impulses;
+
+		ImpulseBatch() {
+			random = new XorShiftRandom(0);
+			bodies = new Array<Body>(true, 64);
+			impulses = new FloatArray(true, 64);
+		}
+	}
+
 	private final int fishComponentId;
 	private final int physicsBodyComponentId;
+	private final XorShiftRandom random;
+	private final XorShiftRandom chunkRandom; //the serial path's chunk generator
+	private long stepSeed;
 
-	public FishSystem(EntityManager entityManager) {
-		super(entityManager, 1 << entityManager.getComponentId(Fish.class) | 1 << entityManager.getComponentId(PhysicsBody.class));
+	public FishSystem(EntityManager entityManager, XorShiftRandom random) {
+		super(entityManager, new ComponentSignature(entityManager.getComponentId(Fish.class), entityManager.getComponentId(PhysicsBody.class)));
 
 		physicsBodyComponentId = entityManager.getComponentId(PhysicsBody.class);
 		fishComponentId = entityManager.getComponentId(Fish.class);
+
+		declareWrites(fishComponentId, physicsBodyComponentId); //impulses go straight to the Box2D body
+
+		this.random = random;
+		chunkRandom = new XorShiftRandom(0);
+	}
+
+	@Override protected void begin(float delta) {
+		stepSeed = random.nextLong();
+	}
+
+	@Override protected void beginChunk(int chunk, Object scratch) {
+		XorShiftRandom chunkRandom = scratch != null ? ((ImpulseBatch)scratch).random : this.chunkRandom;
+		chunkRandom.setSeed(chunkSeed(stepSeed, chunk));
 	}
 
 	@Override protected void processEntity(Entity entity, float delta) {
 		Fish fish = (Fish)entity.getComponent(fishComponentId);
 		Body body = ((PhysicsBody)entity.getComponent(physicsBodyComponentId)).body;
 
+		float impulse = swim(fish, delta, chunkRandom);
+		if (impulse != 0) {
+			Vector2 center = body.getWorldCenter();
+			body.applyLinearImpulse(impulse, 0, center.x, center.y, true);
+		}
+	}
+
+	// Parallel mode ////////////////////////////////////////
+
+	@Override protected Object createScratch() {
+		return new ImpulseBatch();
+	}
+
+	//no Box2D calls here: Box2D isn't thread safe, so the impulse is only recorded
+	@Override protected void processEntity(Entity entity, float delta, Object scratch) {
+		ImpulseBatch batch = (ImpulseBatch)scratch;
+		Fish fish = (Fish)entity.getComponent(fishComponentId);
+
+		float impulse = swim(fish, delta, batch.random);
+		if (impulse != 0) {
+			batch.bodies.add(((PhysicsBody)entity.getComponent(physicsBodyComponentId)).body);
+			batch.impulses.add(impulse);
+		}
+	}
+
+	@Override protected void mergeScratch(Object scratch, float delta) {
+		ImpulseBatch batch = (ImpulseBatch)scratch;
+
+		for (int i = 0; i < batch.bodies.size; i++) {
+			Body body = batch.bodies.get(i);
+			Vector2 center = body.getWorldCenter();
+			body.applyLinearImpulse(batch.impulses.get(i), 0, center.x, center.y, true);
+		}
+
+		batch.bodies.clear();
+		batch.impulses.clear();
+	}
+
+	//advances the fish's timer; returns the horizontal impulse to give it this step, or 0
+	private float swim(Fish fish, float delta, XorShiftRandom random) {
 		fish.timer -= delta;
 		if (fish.timer <= 0) {
-			body.applyLinearImpulse(new Vector2(fish.direction * MathUtils.random(fish.minImpulse, fish.maxImpulse), 0), body.getWorldCenter(), true);
-
-			fish.timer += MathUtils.random(1.5f, 2.5f);
+			float impulse = fish.direction * (fish.minImpulse + random.nextFloat() * (fish.maxImpulse - fish.minImpulse));
+			fish.timer += 1.5f + random.nextFloat();
+			return impulse;
 		}
+
+		return 0;
+	}
+
+	//splitmix64's finalizer over the chunk's place in the step, so neighbouring chunks don't start out alike
+	private static long chunkSeed(long stepSeed, int chunk) {
+		long seed = stepSeed + (chunk + 1) * 0x9E3779B97F4A7C15L;
+		seed = (seed ^ (seed >>> 30)) * 0xBF58476D1CE4E5B9L;
+		seed = (seed ^ (seed >>> 27)) * 0x94D049BB133111EBL;
+		return seed ^ (seed >>> 31);
 	}
 }
@@ -1,9 +1,8 @@
 package norfenstein.ld29;
 
-import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
-import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.ChainShape;
@@ -11,88 +10,325 @@ import com.badlogic.gdx.physics.box2d.CircleShape;
 import com.badlogic.gdx.physics.box2d.EdgeShape;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.QueryCallback;
 import com.badlogic.gdx.physics.box2d.Shape;
+import com.badlogic.gdx.physics.box2d.Transform;
+import com.badlogic.gdx.physics.box2d.World;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.Pool;
+import java.util.Arrays;
 import norfenstein.util.entities.Component;
+import norfenstein.util.entities.ComponentSignature;
 import norfenstein.util.entities.EntityManager;
+import norfenstein.util.entities.EntityQuery;
 import norfenstein.util.entities.EntityStore.Entity;
-import norfenstein.util.entities.InstantIteratingSystem;
+import norfenstein.util.entities.IteratingSystem;
 
-public class ShapeRenderSystem extends InstantIteratingSystem {
-	private final Camera camera;
+//draws the bodies in view, found through Box2D's broadphase, with cached local geometry; call invalidate() after changing a fixture's shape
+public class ShapeRenderSystem extends IteratingSystem implements EntityQuery.Listener {
+	//about a thousand outlined circles before the renderer has to flush early
+	private static final int MAX_VERTICES = 32768;
+	private static final int CIRCLE_SEGMENTS = 16;
+
+	private static final int CIRCLE = 0;
+	private static final int EDGE = 1;
+	private static final int POLYGON = 2;
+
+	//every drawable fixture of one body, in the body's local space
+	private static final class Geometry {
+		Body body; //what it was read from
+		int fixtureCount;
+		int frame; //last frame the entity was collected for drawing
+
+		int size;
+		int[] types = new int[2];
+		int[] vertexStarts = new int[2]; //into vertices, as a vertex index; circles have one vertex, their center
+		int[] vertexCounts = new int[2];
+		float[] radii = new float[2];
+		float[] vertices = new float[16];
+		int vertexCount;
+
+		void clear() {
+			body = null;
+			size = 0;
+			vertexCount = 0;
+		}
+
+		void addPart(int type, float radius) {
+			if (size == types.length) {
+				int capacity = size * 2;
+				types = Arrays.copyOf(types, capacity);
+				vertexStarts = Arrays.copyOf(vertexStarts, capacity);
+				vertexCounts = Arrays.copyOf(vertexCounts, capacity);
+				radii = Arrays.copyOf(radii, capacity);
+			}
+
+			types[size] = type;
+			vertexStarts[size] = vertexCount;
+			vertexCounts[size] = 0;
+			radii[size] = radius;
+			size++;
+		}
+
+		void addVertex(float x, float y) {
+			if (vertexCount * 2 == vertices.length) {
+				vertices = Arrays.copyOf(vertices, vertices.length * 2);
+			}
+
+			vertices[vertexCount * 2] = x;
+			vertices[vertexCount * 2 + 1] = y;
+			vertexCount++;
+			vertexCounts[size - 1]++;
+		}
+	}
+
+	private final OrthographicCamera camera;
+	private final World world;
 	private final ShapeRenderer shapeRenderer;
+	private final VisibleQuery visibleQuery;
+	private TransformHistorySystem transformHistory;
+	private float alpha;
+	private final float[] transform; //interpolated, laid out as Transform.vals
+	private int frame;
+	private int drawnCount;
+	private int culledCount;
+
+	private final Array<Entity> filledEntities;
+	private final Array<Entity> lineEntities; //LINE and DIRECTED
+
+	private final ObjectMap<Entity, Geometry> geometries;
+	private final Pool<Geometry> geometryPool;
 
 	private final Vector2 vertex; //temporary variable for extracting vertices from shapes
-	private final float[] vertices; //required because ShapeRenderer doesn't have polygon(Vector2[] vertices)
+	private float[] vertices; //required because ShapeRenderer doesn't have polygon(Vector2[] vertices)
 
 	private final int physicsBodyComponentId;
 	private final int renderableBodyComponentId;
 
-	public ShapeRenderSystem(EntityManager entityManager, Camera camera) {
-		super(entityManager, 1 << entityManager.getComponentId(PhysicsBody.class) | 1 << entityManager.getComponentId(RenderableBody.class));
+	private class VisibleQuery implements QueryCallback {
+		@Override public boolean reportFixture(Fixture fixture) {
+			Body body = fixture.getBody();
+			if (!(body.getUserData() instanceof Entity)) return true;
+
+			Entity entity = (Entity)body.getUserData();
+			if (!acceptEntity(entity) || ((PhysicsBody)entity.getComponent(physicsBodyComponentId)).body != body) return true;
+
+			Geometry geometry = getGeometry(entity, body);
+			if (geometry.frame != frame) { //bodies with several fixtures get reported more than once
+				geometry.frame = frame;
+				collect(entity);
+			}
+			return true;
+		}
+	}
+
+	public ShapeRenderSystem(EntityManager entityManager, OrthographicCamera camera, World world) {
+		super(entityManager, new ComponentSignature(entityManager.getComponentId(PhysicsBody.class), entityManager.getComponentId(RenderableBody.class)));
 
 		physicsBodyComponentId = entityManager.getComponentId(PhysicsBody.class);
 		renderableBodyComponentId = entityManager.getComponentId(RenderableBody.class);
+		declareReads(physicsBodyComponentId, renderableBodyComponentId);
 
 		this.camera = camera;
-		shapeRenderer = new ShapeRenderer();
+		this.world = world;
+		shapeRenderer = new ShapeRenderer(MAX_VERTICES);
+		visibleQuery = new VisibleQuery();
+		frame = 0;
+
+		filledEntities = new Array<Entity>(false, 64);
+		lineEntities = new Array<Entity>(false, 64);
+
+		geometries = new ObjectMap<Entity, Geometry>();
+		geometryPool = new Pool<Geometry>() {
+			@Override protected Geometry newObject() {
+				return new Geometry();
+			}
+		};
+		query.addListener(this);
 
 		vertex = new Vector2();
-		vertices = new float[2000];
+		vertices = new float[16];
+		transform = new float[4];
+	}
+
+	//null draws every body where the last step left it
+	public void setTransformHistory(TransformHistorySystem transformHistory) {
+		this.transformHistory = transformHistory;
 	}
 
-	public void dispose() {
+	@Override public void dispose() {
+		query.removeListener(this);
+		super.dispose();
 		shapeRenderer.dispose();
 	}
 
-	@Override protected void begin() {
+	//drops the entity's cached geometry, so it's read from its fixtures again the next time it's drawn
+	public void invalidate(Entity entity) {
+		Geometry geometry = geometries.remove(entity);
+		if (geometry != null) {
+			geometryPool.free(geometry);
+		}
+	}
+
+	//the cache is dropped either way, since pooled entities can come back as something else
+	@Override public void queryChanged(EntityQuery query, Array<Entity> added, Array<Entity> removed) {
+		for (int i = 0; i < removed.size; i++) {
+			invalidate(removed.get(i));
+		}
+		for (int i = 0; i < added.size; i++) {
+			invalidate(added.get(i));
+		}
+	}
+
+	//as of the last frame
+	public int getDrawnCount() {
+		return drawnCount;
+	}
+	public int getCulledCount() {
+		return culledCount;
+	}
+
+	@Override public void update(float delta) {
+		process(1f);
+	}
+
+	//alpha is how far the frame is from the previous step to the current one, from 0 to 1
+	public void process(float alpha) {
+		this.alpha = alpha;
+		filledEntities.clear();
+		lineEntities.clear();
+		frame++;
+
+		float halfWidth = camera.viewportWidth * camera.zoom / 2;
+		float halfHeight = camera.viewportHeight * camera.zoom / 2;
+		world.QueryAABB(visibleQuery,
+			camera.position.x - halfWidth, camera.position.y - halfHeight,
+			camera.position.x + halfWidth, camera.position.y + halfHeight);
+
+		drawnCount = filledEntities.size + lineEntities.size;
+		culledCount = query.size() - drawnCount;
+
 		shapeRenderer.setProjectionMatrix(camera.combined);
+
+		draw(filledEntities, ShapeType.Filled);
+		draw(lineEntities, ShapeType.Line);
 	}
 
-	@Override protected void processEntity(Entity entity) {
-		PhysicsBody physicsBody = (PhysicsBody)entity.getComponent(physicsBodyComponentId);
+	private void collect(Entity entity) {
 		RenderableBody renderableBody = (RenderableBody)entity.getComponent(renderableBodyComponentId);
 
-		shapeRenderer.begin(renderableBody.fill == RenderableBody.FillType.FILLED ? ShapeType.Filled : ShapeType.Line);
-		shapeRenderer.setColor(renderableBody.color);
-		shapeRenderer.identity();
-		shapeRenderer.translate(physicsBody.body.getPosition().x, physicsBody.body.getPosition().y, 0);
-		shapeRenderer.rotate(0, 0, 1, physicsBody.body.getAngle() * MathUtils.radDeg);
+		if (renderableBody.fill == RenderableBody.FillType.FILLED) {
+			filledEntities.add(entity);
+		} else {
+			lineEntities.add(entity);
+		}
+	}
+
+	private void draw(Array<Entity> entities, ShapeType shapeType) {
+		if (entities.size == 0) return;
+
+		shapeRenderer.begin(shapeType);
+		for (int i = 0; i < entities.size; i++) {
+			Entity entity = entities.get(i);
+			drawBody(entity, geometries.get(entity), (RenderableBody)entity.getComponent(renderableBodyComponentId));
+		}
+		shapeRenderer.end();
+	}
+
+	private Geometry getGeometry(Entity entity, Body body) {
+		Geometry geometry = geometries.get(entity);
+		if (geometry != null && geometry.body == body && geometry.fixtureCount == body.getFixtureList().size) {
+			return geometry;
+		}
 
-		for (Fixture fixture : physicsBody.body.getFixtureList()) {
+		if (geometry == null) {
+			geometry = geometryPool.obtain();
+			geometry.frame = frame - 1;
+			geometries.put(entity, geometry);
+		}
+		readGeometry(body, geometry);
+		return geometry;
+	}
+
+	private void readGeometry(Body body, Geometry geometry) {
+		geometry.clear();
+		geometry.body = body;
+
+		Array<Fixture> fixtures = body.getFixtureList();
+		geometry.fixtureCount = fixtures.size;
+		for (int f = 0; f < fixtures.size; f++) {
+			Fixture fixture = fixtures.get(f);
 			switch (fixture.getType()) {
 				case Chain:
 					//TODO
 					//ChainShape chainShape = (ChainShape)fixture.getShape();
 					break;
 				case Circle:
-					shapeRenderer.circle(0, 0, fixture.getShape().getRadius(), 16);
-					if (renderableBody.fill == RenderableBody.FillType.DIRECTED) {
-						shapeRenderer.line(0, 0, fixture.getShape().getRadius(), 0);
-					}
+					CircleShape circleShape = (CircleShape)fixture.getShape();
+					Vector2 center = circleShape.getPosition();
+					geometry.addPart(CIRCLE, circleShape.getRadius());
+					geometry.addVertex(center.x, center.y);
 					break;
 				case Edge:
-					if (renderableBody.fill == RenderableBody.FillType.LINE) {
-						EdgeShape edgeShape = (EdgeShape)fixture.getShape();
-
-						edgeShape.getVertex1(vertex);
-						vertices[0] = vertex.x;
-						vertices[1] = vertex.y;
-						edgeShape.getVertex2(vertex);
-						vertices[2] = vertex.x;
-						vertices[3] = vertex.y;
-						shapeRenderer.line(vertices[0], vertices[1], vertices[2], vertices[3]);
-					}
+					EdgeShape edgeShape = (EdgeShape)fixture.getShape();
+					geometry.addPart(EDGE, 0);
+					edgeShape.getVertex1(vertex);
+					geometry.addVertex(vertex.x, vertex.y);
+					edgeShape.getVertex2(vertex);
+					geometry.addVertex(vertex.x, vertex.y);
 					break;
 				case Polygon:
 					PolygonShape polygonShape = (PolygonShape)fixture.getShape();
-
 					int vertexCount = polygonShape.getVertexCount();
+					geometry.addPart(POLYGON, 0);
 					for (int i = 0; i < vertexCount; i++) {
 						polygonShape.getVertex(i, vertex);
-						vertices[i * 2] = vertex.x;
-						vertices[i * 2 + 1] = vertex.y;
+						geometry.addVertex(vertex.x, vertex.y);
+					}
+					if (vertices.length < vertexCount * 2) {
+						vertices = new float[vertexCount * 2];
 					}
+					break;
+			}
+		}
+	}
+
+	private void drawBody(Entity entity, Geometry geometry, RenderableBody renderableBody) {
+		float[] transform = this.transform;
+		if (transformHistory == null || !transformHistory.getTransform(entity, alpha, transform)) {
+			transform = ((PhysicsBody)entity.getComponent(physicsBodyComponentId)).body.getTransform().vals;
+		}
+		float px = transform[Transform.POS_X];
+		float py = transform[Transform.POS_Y];
+		float c = transform[Transform.COS];
+		float s = transform[Transform.SIN];
+
+		shapeRenderer.setColor(renderableBody.color);
+
+		float[] local = geometry.vertices;
+		for (int part = 0; part < geometry.size; part++) {
+			int start = geometry.vertexStarts[part];
+			switch (geometry.types[part]) {
+				case CIRCLE:
+					float radius = geometry.radii[part];
+					float x = px + c * local[start * 2] - s * local[start * 2 + 1];
+					float y = py + s * local[start * 2] + c * local[start * 2 + 1];
+
+					shapeRenderer.circle(x, y, radius, CIRCLE_SEGMENTS);
+					if (renderableBody.fill == RenderableBody.FillType.DIRECTED) {
+						shapeRenderer.line(x, y, x + c * radius, y + s * radius);
+					}
+					break;
+				case EDGE:
+					if (renderableBody.fill == RenderableBody.FillType.LINE) {
+						transform(local, start, 2, px, py, c, s);
+						shapeRenderer.line(vertices[0], vertices[1], vertices[2], vertices[3]);
+					}
+					break;
+				case POLYGON:
+					int vertexCount = geometry.vertexCounts[part];
+					transform(local, start, vertexCount, px, py, c, s);
 
 					if (vertexCount == 3) {
 						shapeRenderer.triangle(vertices[0], vertices[1], vertices[2], vertices[3], vertices[4], vertices[5]);
@@ -104,8 +340,15 @@ public class ShapeRenderSystem extends InstantIteratingSystem {
 					break;
 			}
 		}
+	}
 
-		shapeRenderer.end();
+	//puts count local vertices from start into vertices, in world space
+	private void transform(float[] local, int start, int count, float px, float py, float c, float s) {
+		for (int i = 0; i < count; i++) {
+			float x = local[(start + i) * 2];
+			float y = local[(start + i) * 2 + 1];
+			vertices[i * 2] = px + c * x - s * y;
+			vertices[i * 2 + 1] = py + s * x + c * y;
+		}
 	}
 }
-
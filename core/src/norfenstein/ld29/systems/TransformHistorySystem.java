@@ -0,0 +1,123 @@
+package norfenstein.ld29;
+
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+import com.badlogic.gdx.physics.box2d.Transform;
+import com.badlogic.gdx.utils.Array;
+import java.util.Arrays;
+import norfenstein.util.entities.ComponentSignature;
+import norfenstein.util.entities.EntityManager;
+import norfenstein.util.entities.EntityQuery;
+import norfenstein.util.entities.EntityStore.Entity;
+import norfenstein.util.entities.InstantIteratingSystem;
+
+//each body's transform as of the last two steps, for drawing between them; process() after anything that moves bodies
+public class TransformHistorySystem extends InstantIteratingSystem implements EntityQuery.Listener {
+	private static final int STRIDE = 8;
+	private static final int PREVIOUS = 0;
+	private static final int CURRENT = 4;
+
+	private static final byte UNKNOWN = 0; //joined since the last step, or never captured
+	private static final byte STATIC = 1;
+	private static final byte MOVING = 2;
+
+	private float[] transforms;
+	private byte[] states;
+
+	private final int physicsBodyComponentId;
+
+	public TransformHistorySystem(EntityManager entityManager) {
+		super(entityManager, new ComponentSignature(entityManager.getComponentId(PhysicsBody.class)));
+
+		physicsBodyComponentId = entityManager.getComponentId(PhysicsBody.class);
+		declareReads(physicsBodyComponentId);
+
+		transforms = new float[64 * STRIDE];
+		states = new byte[64];
+		query.addListener(this);
+	}
+
+	@Override public void dispose() {
+		query.removeListener(this);
+		super.dispose();
+	}
+
+	//entities that come back through the pool may be on a different body, so they start over
+	@Override public void queryChanged(EntityQuery query, Array<Entity> added, Array<Entity> removed) {
+		for (int i = 0; i < added.size; i++) {
+			int index = added.get(i).getIndex();
+			if (index >= 0 && index < states.length) {
+				states[index] = UNKNOWN;
+			}
+		}
+	}
+
+	//such as after bodies have been moved directly
+	public void reset() {
+		Arrays.fill(states, UNKNOWN);
+	}
+
+	//alpha of the way from the previous step to the current one, as Transform.vals; false if not captured yet
+	public boolean getTransform(Entity entity, float alpha, float[] out) {
+		int index = entity.getIndex();
+		if (index < 0 || index >= states.length || states[index] == UNKNOWN) return false;
+
+		int offset = index * STRIDE;
+		float x = transforms[offset + PREVIOUS];
+		float y = transforms[offset + PREVIOUS + 1];
+		float c = transforms[offset + PREVIOUS + 2];
+		float s = transforms[offset + PREVIOUS + 3];
+
+		x += (transforms[offset + CURRENT] - x) * alpha;
+		y += (transforms[offset + CURRENT + 1] - y) * alpha;
+		c += (transforms[offset + CURRENT + 2] - c) * alpha;
+		s += (transforms[offset + CURRENT + 3] - s) * alpha;
+
+		//normalizing the blended cos and sin takes the shorter way around; a half turn keeps the previous rotation
+		float length = (float)Math.sqrt(c * c + s * s);
+		if (length > 1e-6f) {
+			c /= length;
+			s /= length;
+		} else {
+			c = transforms[offset + PREVIOUS + 2];
+			s = transforms[offset + PREVIOUS + 3];
+		}
+
+		out[Transform.POS_X] = x;
+		out[Transform.POS_Y] = y;
+		out[Transform.COS] = c;
+		out[Transform.SIN] = s;
+		return true;
+	}
+
+	@Override protected void processEntity(Entity entity) {
+		int index = entity.getIndex();
+		if (index >= states.length) {
+			int capacity = Math.max(index + 1, states.length * 2);
+			states = Arrays.copyOf(states, capacity);
+			transforms = Arrays.copyOf(transforms, capacity * STRIDE);
+		}
+
+		int offset = index * STRIDE;
+		switch (states[index]) {
+			case UNKNOWN:
+				Body body = ((PhysicsBody)entity.getComponent(physicsBodyComponentId)).body;
+				read(body, offset + CURRENT);
+				System.arraycopy(transforms, offset + CURRENT, transforms, offset + PREVIOUS, 4);
+				states[index] = body.getType() == BodyType.StaticBody ? STATIC : MOVING;
+				break;
+			case MOVING:
+				System.arraycopy(transforms, offset + CURRENT, transforms, offset + PREVIOUS, 4);
+				read(((PhysicsBody)entity.getComponent(physicsBodyComponentId)).body, offset + CURRENT);
+				break;
+		}
+	}
+
+	private void read(Body body, int offset) {
+		float[] transform = body.getTransform().vals;
+		transforms[offset] = transform[Transform.POS_X];
+		transforms[offset + 1] = transform[Transform.POS_Y];
+		transforms[offset + 2] = transform[Transform.COS];
+		transforms[offset + 3] = transform[Transform.SIN];
+	}
+}
@@ -0,0 +1,45 @@
+package norfenstein.util;
+
+//seeded xorshift64* whose whole state is one long, and which gives the same sequence everywhere
+public final class XorShiftRandom {
+	private long state;
+
+	public XorShiftRandom(long seed) {
+		setSeed(seed);
+	}
+
+	//zero would get stuck, so seeds are scrambled first
+	public void setSeed(long seed) {
+		state = seed ^ 0x9E3779B97F4A7C15L;
+		if (state == 0) state = 1;
+	}
+
+	public long getState() {
+		return state;
+	}
+
+	//a state previously returned by getState()
+	public void setState(long state) {
+		this.state = state != 0 ? state : 1;
+	}
+
+	public long nextLong() {
+		state ^= state >>> 12;
+		state ^= state << 25;
+		state ^= state >>> 27;
+		return state * 0x2545F4914F6CDD1DL;
+	}
+
+	public int nextInt(int bound) {
+		return (int)(((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+
+	//in [0, 1)
+	public float nextFloat() {
+		return (nextLong() >>> 40) * (1f / (1 << 24));
+	}
+}
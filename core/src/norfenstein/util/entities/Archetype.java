@@ -0,0 +1,117 @@
+package norfenstein.util.entities;
+
+import com.badlogic.gdx.utils.Array;
+import norfenstein.util.entities.EntityStore.Entity;
+
+//table of every entity sharing one component signature, with one contiguous column per component type
+public final class Archetype {
+	private final ComponentSignature signature;
+	private final int[] columnIndices; //indexed by component id, -1 if this archetype doesn't have the component
+	private final Component[][] columns;
+	private Entity[] entities;
+	private int size;
+	final Array<EntityQuery> queries; //every query this archetype matches
+
+	Archetype(ComponentSignature signature) {
+		this.signature = new ComponentSignature(signature);
+
+		columnIndices = new int[signature.length()];
+		columns = new Component[signature.size()][];
+		entities = new Entity[16];
+		size = 0;
+		queries = new Array<EntityQuery>(true, 4);
+
+		int column = 0;
+		for (int componentId = 0; componentId < columnIndices.length; componentId++) {
+			if (signature.get(componentId)) {
+				columnIndices[componentId] = column;
+				columns[column] = new Component[entities.length];
+				column++;
+			} else {
+				columnIndices[componentId] = -1;
+			}
+		}
+	}
+
+	//shared with every entity in the archetype; don't modify
+	public ComponentSignature getSignature() {
+		return signature;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Entity getEntity(int row) {
+		return entities[row];
+	}
+
+	public boolean hasComponent(int componentId) {
+		return componentId >= 0 && componentId < columnIndices.length && columnIndices[componentId] >= 0;
+	}
+
+	//the returned array is only valid until the next structural change to this archetype
+	public Component[] getComponents(int componentId) {
+		return hasComponent(componentId) ? columns[columnIndices[componentId]] : null;
+	}
+
+	Component getComponent(int componentId, int row) {
+		return hasComponent(componentId) ? columns[columnIndices[componentId]][row] : null;
+	}
+
+	void setComponent(int componentId, int row, Component component) {
+		columns[columnIndices[componentId]][row] = component;
+	}
+
+	int add(Entity entity) {
+		if (size == entities.length) {
+			grow(size * 2);
+		}
+
+		entities[size] = entity;
+		return size++;
+	}
+
+	//swap-removes the row; returns the entity that was moved into it, or null if the row was last
+	Entity remove(int row) {
+		int last = --size;
+		Entity moved = null;
+
+		if (row != last) {
+			moved = entities[last];
+			entities[row] = moved;
+			for (Component[] column : columns) {
+				column[row] = column[last];
+			}
+		}
+
+		entities[last] = null;
+		for (Component[] column : columns) {
+			column[last] = null;
+		}
+
+		return moved;
+	}
+
+	//copies every component the two archetypes share from one row to another
+	void copyShared(int fromRow, Archetype to, int toRow) {
+		int count = Math.min(columnIndices.length, to.columnIndices.length);
+		for (int componentId = 0; componentId < count; componentId++) {
+			if (columnIndices[componentId] >= 0 && to.columnIndices[componentId] >= 0) {
+				to.columns[to.columnIndices[componentId]][toRow] = columns[columnIndices[componentId]][fromRow];
+			}
+		}
+	}
+
+	private void grow(int capacity) {
+		Entity[] newEntities = new Entity[capacity];
+		System.arraycopy(entities, 0, newEntities, 0, size);
+		entities = newEntities;
+
+		for (int i = 0; i < columns.length; i++) {
+			Component[] newColumn = new Component[capacity];
+			System.arraycopy(columns[i], 0, newColumn, 0, size);
+			columns[i] = newColumn;
+		}
+	}
+}
@@ -1,3 +1,8 @@
 package norfenstein.util.entities;
 
-public abstract class Component { }
+import com.badlogic.gdx.utils.Pool.Poolable;
+
+public abstract class Component implements Poolable {
+	//called when the component goes back to its pool; clear anything that shouldn't leak into its next owner
+	@Override public void reset() { }
+}
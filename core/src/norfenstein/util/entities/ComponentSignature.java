@@ -0,0 +1,165 @@
+package norfenstein.util.entities;
+
+//growable set of component ids; equal signatures are equal regardless of how much each has grown
+public final class ComponentSignature {
+	private long[] words;
+
+	public ComponentSignature() {
+		words = new long[1];
+	}
+	public ComponentSignature(int... componentIds) {
+		this();
+		for (int componentId : componentIds) {
+			set(componentId);
+		}
+	}
+	public ComponentSignature(ComponentSignature signature) {
+		words = new long[signature.words.length];
+		System.arraycopy(signature.words, 0, words, 0, words.length);
+	}
+
+	public boolean get(int componentId) {
+		int word = componentId >>> 6;
+		return word < words.length && (words[word] & (1L << componentId)) != 0;
+	}
+
+	public ComponentSignature set(int componentId) {
+		int word = componentId >>> 6;
+		if (word >= words.length) {
+			long[] newWords = new long[Math.max(word + 1, words.length * 2)];
+			System.arraycopy(words, 0, newWords, 0, words.length);
+			words = newWords;
+		}
+
+		words[word] |= 1L << componentId;
+		return this;
+	}
+
+	public ComponentSignature clear(int componentId) {
+		int word = componentId >>> 6;
+		if (word < words.length) {
+			words[word] &= ~(1L << componentId);
+		}
+		return this;
+	}
+
+	public ComponentSignature clear() {
+		for (int i = 0; i < words.length; i++) {
+			words[i] = 0;
+		}
+		return this;
+	}
+
+	public ComponentSignature set(ComponentSignature signature) {
+		if (words.length < signature.words.length) {
+			words = new long[signature.words.length];
+		}
+
+		System.arraycopy(signature.words, 0, words, 0, signature.words.length);
+		for (int i = signature.words.length; i < words.length; i++) {
+			words[i] = 0;
+		}
+		return this;
+	}
+
+	public boolean isEmpty() {
+		for (long word : words) {
+			if (word != 0) return false;
+		}
+		return true;
+	}
+
+	//number of component ids in the signature
+	public int size() {
+		int size = 0;
+		for (long word : words) {
+			size += Long.bitCount(word);
+		}
+		return size;
+	}
+
+	//one more than the highest component id in the signature, or 0 if empty
+	public int length() {
+		for (int i = words.length - 1; i >= 0; i--) {
+			if (words[i] != 0) {
+				return (i << 6) + 64 - Long.numberOfLeadingZeros(words[i]);
+			}
+		}
+		return 0;
+	}
+
+	//lowest component id at or above fromId, or -1 if there isn't one
+	public int nextSetBit(int fromId) {
+		int word = fromId >>> 6;
+		if (word >= words.length) return -1;
+
+		long bits = words[word] & (-1L << fromId);
+		while (true) {
+			if (bits != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			if (++word >= words.length) {
+				return -1;
+			}
+			bits = words[word];
+		}
+	}
+
+	public boolean containsAll(ComponentSignature signature) {
+		long[] otherWords = signature.words;
+
+		for (int i = words.length; i < otherWords.length; i++) {
+			if (otherWords[i] != 0) return false;
+		}
+
+		int count = Math.min(words.length, otherWords.length);
+		for (int i = 0; i < count; i++) {
+			if ((words[i] & otherWords[i]) != otherWords[i]) return false;
+		}
+
+		return true;
+	}
+
+	public boolean intersects(ComponentSignature signature) {
+		long[] otherWords = signature.words;
+
+		int count = Math.min(words.length, otherWords.length);
+		for (int i = 0; i < count; i++) {
+			if ((words[i] & otherWords[i]) != 0) return true;
+		}
+
+		return false;
+	}
+
+	@Override public boolean equals(Object object) {
+		if (object == this) return true;
+		if (!(object instanceof ComponentSignature)) return false;
+
+		long[] otherWords = ((ComponentSignature)object).words;
+		int count = Math.max(words.length, otherWords.length);
+		for (int i = 0; i < count; i++) {
+			long word = i < words.length ? words[i] : 0;
+			long otherWord = i < otherWords.length ? otherWords[i] : 0;
+			if (word != otherWord) return false;
+		}
+
+		return true;
+	}
+
+	@Override public int hashCode() {
+		long hash = 0;
+		for (int i = words.length - 1; i >= 0; i--) { //trailing empty words must not change the hash
+			hash = hash * 31 + words[i];
+		}
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	@Override public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int componentId = nextSetBit(0); componentId >= 0; componentId = nextSetBit(componentId + 1)) {
+			if (builder.length() > 1) builder.append(", ");
+			builder.append(componentId);
+		}
+		return builder.append("]").toString();
+	}
+}
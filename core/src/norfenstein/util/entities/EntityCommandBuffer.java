@@ -0,0 +1,154 @@
+package norfenstein.util.entities;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Arrays;
+import norfenstein.util.entities.EntityStore.Entity;
+
+//structural changes applied together by EntityStore.flushCommands(); safe to record from parallel systems
+public final class EntityCommandBuffer {
+	static final int CREATE = 0;
+	static final int DESTROY = 1;
+	static final int ADD = 2;
+	static final int REMOVE = 3;
+
+	private final EntityStore entityStore;
+
+	private int size;
+	private int[] types;
+	private Entity[] entities;
+	private int[] handles; //as they were when recorded, so commands for entities that have gone since can be dropped
+	private int[] payloadStarts;
+	private int[] payloadCounts;
+	private long[] sortKeys; //entity index in the high half, command index in the low half
+
+	private final Array<Component> components;
+	private final IntArray componentIds;
+
+	EntityCommandBuffer(EntityStore entityStore) {
+		this.entityStore = entityStore;
+
+		size = 0;
+		types = new int[64];
+		entities = new Entity[64];
+		handles = new int[64];
+		payloadStarts = new int[64];
+		payloadCounts = new int[64];
+		sortKeys = new long[64];
+
+		components = new Array<Component>(true, 64);
+		componentIds = new IntArray(true, 16);
+	}
+
+	//the entity is reserved straight away, so its handle can be stored, but it only joins archetypes and queries on flush
+	public synchronized Entity create(Component... components) {
+		Entity entity = entityStore.reserveEntity();
+
+		record(CREATE, entity, 0, 0);
+		if (components.length > 0) {
+			addComponents(entity, components);
+		}
+
+		return entity;
+	}
+
+	public synchronized void destroy(Entity entity) {
+		record(DESTROY, entity, 0, 0);
+	}
+
+	public synchronized void addComponents(Entity entity, Component... components) {
+		int start = this.components.size;
+		for (Component component : components) {
+			if (component != null) {
+				this.components.add(component);
+			}
+		}
+
+		record(ADD, entity, start, this.components.size - start);
+	}
+
+	public synchronized void removeComponents(Entity entity, int... componentIds) {
+		int start = this.componentIds.size;
+		this.componentIds.addAll(componentIds);
+
+		record(REMOVE, entity, start, componentIds.length);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Flushing /////////////////////////////////////////////
+
+	//orders commands by entity index, keeping each entity's commands in the order they were recorded
+	void sort() {
+		for (int i = 0; i < size; i++) {
+			sortKeys[i] = ((long)entities[i].getIndex() << 32) | i;
+		}
+		Arrays.sort(sortKeys, 0, size);
+	}
+
+	//command index of the nth command in sorted order
+	int getSorted(int n) {
+		return (int)sortKeys[n];
+	}
+
+	int getType(int command) {
+		return types[command];
+	}
+
+	Entity getEntity(int command) {
+		return entities[command];
+	}
+
+	int getHandle(int command) {
+		return handles[command];
+	}
+
+	int getPayloadCount(int command) {
+		return payloadCounts[command];
+	}
+
+	Component getComponent(int command, int n) {
+		return components.get(payloadStarts[command] + n);
+	}
+
+	int getComponentId(int command, int n) {
+		return componentIds.get(payloadStarts[command] + n);
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			entities[i] = null;
+		}
+		size = 0;
+
+		components.clear();
+		componentIds.clear();
+	}
+
+	private void record(int type, Entity entity, int payloadStart, int payloadCount) {
+		if (entity.getIndex() < 0) throw new IllegalArgumentException("Entity isn't in the store");
+
+		if (size == types.length) {
+			int capacity = size * 2;
+			types = Arrays.copyOf(types, capacity);
+			entities = Arrays.copyOf(entities, capacity);
+			handles = Arrays.copyOf(handles, capacity);
+			payloadStarts = Arrays.copyOf(payloadStarts, capacity);
+			payloadCounts = Arrays.copyOf(payloadCounts, capacity);
+			sortKeys = Arrays.copyOf(sortKeys, capacity);
+		}
+
+		types[size] = type;
+		entities[size] = entity;
+		handles[size] = entity.getHandle();
+		payloadStarts[size] = payloadStart;
+		payloadCounts[size] = payloadCount;
+		size++;
+	}
+}
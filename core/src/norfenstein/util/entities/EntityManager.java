@@ -1,11 +1,16 @@
 package norfenstein.util.entities;
 
+import com.badlogic.gdx.utils.Array;
 import norfenstein.util.entities.EntityStore.Entity;
 
 public interface EntityManager {
 	int getComponentId(Class<? extends Component> componentType);
 	void addEntity(Entity entity);
 	void removeEntity(Entity entity);
+	Array<Archetype> getArchetypes(); //in creation order; archetypes are never removed
+	EntityQuery acquireQuery(ComponentSignature signature); //shared between everyone asking for the same signature
+	void releaseQuery(EntityQuery query);
+	EntityCommandBuffer getCommandBuffer(); //applied when the owner of the store reaches a sync point
 
 	interface Listener {
 		void entityAdded(Entity entity);
@@ -0,0 +1,191 @@
+package norfenstein.util.entities;
+
+import com.badlogic.gdx.utils.Array;
+import norfenstein.util.entities.EntityStore.Entity;
+
+//every entity whose signature contains the query's, in a dense array kept up to date by the EntityStore
+public final class EntityQuery {
+	//once per immediate change or flushCommands(); an entity can be in both arrays, and neither may be kept
+	public interface Listener {
+		void queryChanged(EntityQuery query, Array<Entity> added, Array<Entity> removed);
+	}
+
+	final int id;
+	private final ComponentSignature signature;
+	private final Array<Archetype> archetypes;
+	private Entity[] entities;
+	private int size; //including holes
+	private int holes;
+	private int locks;
+	int references;
+
+	private final Array<Listener> listeners;
+	private final Array<Entity> added;
+	private final Array<Entity> removed;
+	private final Array<EntityQuery> changedQueries; //owned by the store, which notifies everything in it
+
+	EntityQuery(int id, ComponentSignature signature, Array<EntityQuery> changedQueries) {
+		this.id = id;
+		this.signature = new ComponentSignature(signature);
+		archetypes = new Array<Archetype>(true, 8);
+		entities = new Entity[16];
+		size = 0;
+		holes = 0;
+		locks = 0;
+		references = 0;
+
+		listeners = new Array<Listener>(true, 4);
+		added = new Array<Entity>(false, 16);
+		removed = new Array<Entity>(false, 16);
+		this.changedQueries = changedQueries;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.removeValue(listener, true);
+	}
+
+	//shared with every holder of the query; don't modify
+	public ComponentSignature getSignature() {
+		return signature;
+	}
+
+	//in archetype creation order; don't modify
+	public Array<Archetype> getArchetypes() {
+		return archetypes;
+	}
+
+	public int size() {
+		return size - holes;
+	}
+
+	boolean matches(Archetype archetype) {
+		return archetype.getSignature().containsAll(signature);
+	}
+
+	void addArchetype(Archetype archetype) {
+		archetypes.add(archetype);
+	}
+
+	// Iteration ////////////////////////////////////////////
+
+	//removals leave a hole while locked; synchronized since systems sharing the query may run side by side
+	synchronized void lock() {
+		locks++;
+	}
+
+	synchronized void unlock() {
+		if (--locks == 0 && holes > 0) {
+			closeHoles();
+		}
+	}
+
+	int slotCount() {
+		return size;
+	}
+
+	//null for an entity removed since the query was locked
+	Entity getSlot(int slot) {
+		return entities[slot];
+	}
+
+	// Membership ///////////////////////////////////////////
+
+	void add(Entity entity) {
+		if (size == entities.length) {
+			Entity[] newEntities = new Entity[size * 2];
+			System.arraycopy(entities, 0, newEntities, 0, size);
+			entities = newEntities;
+		}
+
+		entity.setQuerySlot(id, size);
+		entities[size++] = entity;
+
+		if (listeners.size > 0) {
+			markChanged();
+			added.add(entity);
+		}
+	}
+
+	void remove(Entity entity) {
+		int slot = entity.getQuerySlot(id);
+		if (slot < 0) return;
+
+		entity.setQuerySlot(id, -1);
+
+		if (listeners.size > 0) {
+			markChanged();
+			removed.add(entity);
+		}
+
+		if (locks > 0) {
+			entities[slot] = null;
+			holes++;
+			return;
+		}
+
+		int last = --size;
+		if (slot != last) {
+			Entity moved = entities[last];
+			entities[slot] = moved;
+			moved.setQuerySlot(id, slot);
+		}
+		entities[last] = null;
+	}
+
+	//forgets every entity; used when the query is released
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			if (entities[i] != null) {
+				entities[i].setQuerySlot(id, -1);
+				entities[i] = null;
+			}
+		}
+		size = 0;
+		holes = 0;
+		archetypes.clear();
+		added.clear();
+		removed.clear();
+	}
+
+	void notifyListeners() {
+		if (added.size > 0 || removed.size > 0) {
+			for (int i = 0; i < listeners.size; i++) {
+				listeners.get(i).queryChanged(this, added, removed);
+			}
+
+			added.clear();
+			removed.clear();
+		}
+	}
+
+	private void markChanged() {
+		if (added.size == 0 && removed.size == 0) {
+			changedQueries.add(this);
+		}
+	}
+
+	private void closeHoles() {
+		int to = 0;
+		for (int from = 0; from < size; from++) {
+			Entity entity = entities[from];
+			if (entity != null) {
+				if (to != from) {
+					entities[to] = entity;
+					entity.setQuerySlot(id, to);
+				}
+				to++;
+			}
+		}
+
+		for (int i = to; i < size; i++) {
+			entities[i] = null;
+		}
+
+		size = to;
+		holes = 0;
+	}
+}
@@ -1,65 +1,235 @@
 package norfenstein.util.entities;
 
 import com.badlogic.gdx.utils.Array;
-import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.Pool;
+import com.badlogic.gdx.utils.ReflectionPool;
 
 public final class EntityStore implements EntityManager {
+	//handles pack a 20 bit entity index with an 11 bit generation, which is bumped each time the index is given up
+	private static final int INDEX_BITS = 20;
+	private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	private static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+	private static final Component[] NO_COMPONENTS = new Component[0];
+
 	public final class Entity {
-		private IntMap<Component> components;
-		private long componentBitMask;
+		private int index; //-1 while the entity isn't in the store
+		private Archetype archetype;
+		private int row;
+		private int slot; //in entities, -1 when not in it
+		private int[] querySlots; //indexed by query id, -1 when not in the query
 
 		public Entity() {
-			components = new IntMap<Component>();
-			componentBitMask = 0;
+			this(true);
 		}
 		public Entity(Component... components) {
-			this();
-			addComponents(components);
+			this(false);
+			attach(components);
+		}
+		private Entity(boolean attach) {
+			index = -1;
+			archetype = null;
+			row = -1;
+			slot = -1;
+			querySlots = new int[0];
+			if (attach) {
+				attach(NO_COMPONENTS);
+			}
+		}
+
+		//stays valid until the entity is removed or freed, or -1 if it isn't in the store; see EntityStore.getEntity(int)
+		public int getHandle() {
+			return index >= 0 ? (generations[index] << INDEX_BITS) | index : -1;
 		}
 
-		public long getComponentBitMask() {
-			return componentBitMask;
+		//small and dense, so suitable for indexing side arrays; given to another entity once this one is removed
+		public int getIndex() {
+			return index;
+		}
+
+		//shared with every entity in the same archetype; don't modify
+		public ComponentSignature getComponentSignature() {
+			return archetype != null ? archetype.getSignature() : emptyArchetype.getSignature();
 		}
 
 		public void addComponents(Component... components) {
 			if (components.length > 0) {
-				for (Component component : components) {
-					if (component != null) {
-						int componentId = getComponentId(component.getClass());
-						componentBitMask |= 1 << componentId;
-						this.components.put(componentId, component);
-					}
-				}
+				setComponents(scratchSignature.set(getComponentSignature()), components);
 				onEntityChanged(this);
 			}
 		}
 
 		public void removeComponents(int... componentIds) {
 			if (componentIds.length > 0) {
+				ComponentSignature signature = scratchSignature.set(getComponentSignature());
 				for (int componentId : componentIds) {
-					componentBitMask &= ~(1 << componentId);
-					components.remove(componentId);
+					signature.clear(componentId);
 				}
+
+				setArchetype(getArchetype(signature));
 				onEntityChanged(this);
 			}
 		}
 
 		public Component getComponent(int componentId) {
-			return components.get(componentId);
+			return archetype != null ? archetype.getComponent(componentId, row) : null;
+		}
+
+		//gives an entity that isn't in the store an index and its first archetype, then announces it
+		private void attach(Component[] components) {
+			acquireIndex(this);
+			setComponents(scratchSignature.clear(), components);
+			onEntityAdded(this);
+		}
+
+		//moves to the archetype for signature plus the components' types, then stores the components
+		private void setComponents(ComponentSignature signature, Component[] components) {
+			for (Component component : components) {
+				if (component != null) {
+					signature.set(getComponentId(component.getClass()));
+				}
+			}
+
+			setArchetype(getArchetype(signature));
+			for (Component component : components) {
+				if (component != null) {
+					archetype.setComponent(getComponentId(component.getClass()), row, component);
+				}
+			}
+		}
+
+		//carries over the components both archetypes have; the first one puts the entity in the store's list
+		private void setArchetype(Archetype nextArchetype) {
+			if (nextArchetype == archetype) return;
+
+			Archetype previousArchetype = archetype;
+			int nextRow = nextArchetype.add(this);
+			if (previousArchetype != null) {
+				previousArchetype.copyShared(row, nextArchetype, nextRow);
+				removeRow();
+			} else {
+				slot = entities.size;
+				entities.add(this);
+			}
+
+			archetype = nextArchetype;
+			row = nextRow;
+			updateQueries(previousArchetype, nextArchetype);
+		}
+
+		private void detach() {
+			if (archetype != null) {
+				Archetype previousArchetype = archetype;
+				removeRow();
+
+				archetype = null;
+				row = -1;
+				updateQueries(previousArchetype, null);
+
+				Entity last = entities.pop(); //swapped into this entity's slot, so removal doesn't search the list
+				if (last != this) {
+					entities.set(slot, last);
+					last.slot = slot;
+				}
+				slot = -1;
+			}
+		}
+
+		private void removeRow() {
+			Entity moved = archetype.remove(row);
+			if (moved != null) {
+				moved.row = row;
+			}
+		}
+
+		//only the queries matched by one archetype but not the other see the change
+		private void updateQueries(Archetype previousArchetype, Archetype nextArchetype) {
+			if (previousArchetype != null) {
+				for (int i = 0; i < previousArchetype.queries.size; i++) {
+					EntityQuery query = previousArchetype.queries.get(i);
+					if (nextArchetype == null || !query.matches(nextArchetype)) {
+						query.remove(this);
+					}
+				}
+			}
+
+			if (nextArchetype != null) {
+				for (int i = 0; i < nextArchetype.queries.size; i++) {
+					EntityQuery query = nextArchetype.queries.get(i);
+					if (previousArchetype == null || !query.matches(previousArchetype)) {
+						query.add(this);
+					}
+				}
+			}
+		}
+
+		int getQuerySlot(int queryId) {
+			return queryId < querySlots.length ? querySlots[queryId] : -1;
+		}
+
+		void setQuerySlot(int queryId, int slot) {
+			if (queryId >= querySlots.length) {
+				int[] newQuerySlots = new int[Math.max(queryId + 1, querySlots.length * 2)];
+				System.arraycopy(querySlots, 0, newQuerySlots, 0, querySlots.length);
+				for (int i = querySlots.length; i < newQuerySlots.length; i++) {
+					newQuerySlots[i] = -1;
+				}
+				querySlots = newQuerySlots;
+			}
+
+			querySlots[queryId] = slot;
 		}
 	}
 
 	private Array<Entity> entities;
+	private Array<Entity> entitiesByIndex; //null at indices nobody holds
+	private int[] generations;
+	private IntArray freeIndices;
+	private Array<Entity> freeEntities;
 	private Array<EntityManager.Listener> listeners;
 
+	private ObjectMap<ComponentSignature, Archetype> archetypesBySignature;
+	private Array<Archetype> archetypes;
+	private ObjectMap<ComponentSignature, EntityQuery> queriesBySignature;
+	private Array<EntityQuery> queries;
+	private IntArray freeQueryIds;
+	private int nextQueryId = 0;
+	private Array<EntityQuery> changedQueries;
+
+	private final EntityCommandBuffer commandBuffer;
+	private boolean flushing;
+	private Component[] pendingComponents; //scratch for flushCommands(), indexed by component id
+	private IntArray pendingComponentIds;
+	private final Archetype emptyArchetype;
+	private final ComponentSignature scratchSignature; //lookup key for archetype transitions, so they don't allocate
+
 	private ObjectIntMap<Class<? extends Component>> componentIds;
+	private ObjectMap<Class<? extends Component>, Pool<? extends Component>> componentPools;
 	private int nextComponentId = 0;
 
 	public EntityStore() {
 		entities = new Array<Entity>(false, 16);
+		entitiesByIndex = new Array<Entity>(true, 16);
+		generations = new int[16];
+		freeIndices = new IntArray();
+		freeEntities = new Array<Entity>(false, 16);
 		listeners = new Array<EntityManager.Listener>(false, 16);
+		archetypesBySignature = new ObjectMap<ComponentSignature, Archetype>();
+		archetypes = new Array<Archetype>(true, 16);
+		queriesBySignature = new ObjectMap<ComponentSignature, EntityQuery>();
+		queries = new Array<EntityQuery>(true, 16);
+		freeQueryIds = new IntArray();
+		changedQueries = new Array<EntityQuery>(false, 16);
+		commandBuffer = new EntityCommandBuffer(this);
+		flushing = false;
+		pendingComponents = new Component[16];
+		pendingComponentIds = new IntArray();
+		scratchSignature = new ComponentSignature();
+		emptyArchetype = getArchetype(scratchSignature);
 		componentIds = new ObjectIntMap<Class<? extends Component>>();
+		componentPools = new ObjectMap<Class<? extends Component>, Pool<? extends Component>>();
 	}
 
 	public void addListener(EntityManager.Listener listener) {
@@ -74,15 +244,137 @@ public final class EntityStore implements EntityManager {
 		listeners.removeValue(listener, true);
 	}
 
+	// Pooling //////////////////////////////////////////////
+
+	//like new Entity(components), but reuses a freed entity if there is one
+	public Entity obtainEntity(Component... components) {
+		Entity entity;
+
+		if (freeEntities.size > 0) {
+			entity = freeEntities.pop();
+			entity.attach(components);
+		} else {
+			entity = new Entity(components);
+		}
+
+		return entity;
+	}
+
+	//removes the entity, returns its components to their pools and invalidates its handle
+	public void freeEntity(Entity entity) {
+		if (entity.archetype == null) throw new IllegalArgumentException("Entity isn't in the store");
+
+		ComponentSignature signature = entity.archetype.getSignature();
+		for (int componentId = signature.nextSetBit(0); componentId >= 0; componentId = signature.nextSetBit(componentId + 1)) {
+			freeComponent(entity.getComponent(componentId));
+		}
+
+		removeEntity(entity);
+		freeEntities.add(entity);
+	}
+
+	//the entity a handle refers to, or null if that entity has been freed since
+	public Entity getEntity(int handle) {
+		int index = handle & INDEX_MASK;
+		if (index >= entitiesByIndex.size) return null;
+
+		Entity entity = entitiesByIndex.get(index);
+		return entity != null && entity.getHandle() == handle ? entity : null;
+	}
+
+	public <T extends Component> T obtainComponent(Class<T> componentType) {
+		return getComponentPool(componentType).obtain();
+	}
+
+	@SuppressWarnings("unchecked")
+	public void freeComponent(Component component) {
+		if (component != null) {
+			((Pool<Component>)getComponentPool(component.getClass())).free(component);
+		}
+	}
+
+	//a pooled or new entity with an index but no archetype yet
+	Entity reserveEntity() {
+		Entity entity = freeEntities.size > 0 ? freeEntities.pop() : new Entity(false);
+		acquireIndex(entity);
+		return entity;
+	}
+
+	private void acquireIndex(Entity entity) {
+		int index;
+
+		if (freeIndices.size > 0) {
+			index = freeIndices.pop();
+		} else {
+			index = entitiesByIndex.size;
+			if (index > INDEX_MASK) throw new IllegalStateException("Too many entities: " + index);
+			entitiesByIndex.add(null);
+
+			if (index == generations.length) {
+				int[] newGenerations = new int[index * 2];
+				System.arraycopy(generations, 0, newGenerations, 0, index);
+				generations = newGenerations;
+			}
+		}
+
+		entitiesByIndex.set(index, entity);
+		entity.index = index;
+	}
+
+	//invalidates every handle to the entity, so the index can go to the next entity that needs one
+	private void releaseIndex(Entity entity) {
+		if (entity.index >= 0) {
+			entitiesByIndex.set(entity.index, null);
+			generations[entity.index] = (generations[entity.index] + 1) & GENERATION_MASK;
+			freeIndices.add(entity.index);
+			entity.index = -1;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Component> Pool<T> getComponentPool(Class<T> componentType) {
+		Pool<T> pool = (Pool<T>)componentPools.get(componentType);
+
+		if (pool == null) {
+			pool = new ReflectionPool<T>(componentType);
+			componentPools.put(componentType, pool);
+		}
+
+		return pool;
+	}
+
+	private Archetype getArchetype(ComponentSignature signature) {
+		Archetype archetype = archetypesBySignature.get(signature);
+
+		if (archetype == null) {
+			archetype = new Archetype(signature); //copies the signature, so scratch keys are safe to pass in
+			archetypesBySignature.put(archetype.getSignature(), archetype);
+			archetypes.add(archetype);
+
+			for (int i = 0; i < queries.size; i++) { //one signature test per distinct query, however many systems share it
+				EntityQuery query = queries.get(i);
+				if (query.matches(archetype)) {
+					query.addArchetype(archetype);
+					archetype.queries.add(query);
+				}
+			}
+		}
+
+		return archetype;
+	}
+
 	// EntityManager ////////////////////////////////////////
 
+	//entities join the store when they're created, so this only brings back one that was removed; its components went with it
 	@Override public void addEntity(Entity entity) {
-		entities.add(entity);
-		onEntityAdded(entity);
+		if (entity.archetype == null) {
+			entity.attach(NO_COMPONENTS);
+		}
 	}
 
 	@Override public void removeEntity(Entity entity) {
-		entities.removeValue(entity, true);
+		entity.detach();
+		releaseIndex(entity);
 		onEntityRemoved(entity);
 	}
 
@@ -97,23 +389,184 @@ public final class EntityStore implements EntityManager {
 		return componentId;
 	}
 
+	@Override public Array<Archetype> getArchetypes() {
+		return archetypes;
+	}
+
+	@Override public EntityQuery acquireQuery(ComponentSignature signature) {
+		EntityQuery query = queriesBySignature.get(signature);
+
+		if (query == null) {
+			query = new EntityQuery(freeQueryIds.size > 0 ? freeQueryIds.pop() : nextQueryId++, signature, changedQueries);
+			queriesBySignature.put(query.getSignature(), query);
+			queries.add(query);
+
+			for (int i = 0; i < archetypes.size; i++) {
+				Archetype archetype = archetypes.get(i);
+				if (query.matches(archetype)) {
+					query.addArchetype(archetype);
+					archetype.queries.add(query);
+
+					for (int row = 0; row < archetype.size(); row++) {
+						query.add(archetype.getEntity(row));
+					}
+				}
+			}
+		}
+
+		query.references++;
+		return query;
+	}
+
+	@Override public void releaseQuery(EntityQuery query) {
+		if (--query.references <= 0) {
+			queriesBySignature.remove(query.getSignature());
+			queries.removeValue(query, true);
+
+			Array<Archetype> matchedArchetypes = query.getArchetypes();
+			for (int i = 0; i < matchedArchetypes.size; i++) {
+				matchedArchetypes.get(i).queries.removeValue(query, true);
+			}
+			query.clear();
+			changedQueries.removeValue(query, true);
+			freeQueryIds.add(query.id);
+		}
+	}
+
+	@Override public EntityCommandBuffer getCommandBuffer() {
+		return commandBuffer;
+	}
+
+	// Commands /////////////////////////////////////////////
+
+	//one entity at a time in index order, moving each at most once; queries notify once at the end
+	public void flushCommands() {
+		EntityCommandBuffer commands = commandBuffer;
+		if (commands.isEmpty()) return;
+
+		flushing = true;
+		commands.sort();
+
+		int n = 0;
+		while (n < commands.size()) {
+			Entity entity = commands.getEntity(commands.getSorted(n));
+			ComponentSignature signature = scratchSignature.set(entity.getComponentSignature());
+			boolean created = false;
+			boolean destroyed = false;
+			boolean changed = false;
+
+			for (; n < commands.size() && commands.getEntity(commands.getSorted(n)) == entity; n++) {
+				int command = commands.getSorted(n);
+				if (entity.getHandle() != commands.getHandle(command)) continue; //removed or freed since it was recorded
+				int count = commands.getPayloadCount(command);
+
+				switch (commands.getType(command)) {
+					case EntityCommandBuffer.CREATE:
+						created = true;
+						break;
+					case EntityCommandBuffer.DESTROY:
+						destroyed = true;
+						break;
+					case EntityCommandBuffer.ADD:
+						for (int i = 0; i < count; i++) {
+							Component component = commands.getComponent(command, i);
+							int componentId = getComponentId(component.getClass());
+							signature.set(componentId);
+							setPendingComponent(componentId, component);
+						}
+						changed = true;
+						break;
+					case EntityCommandBuffer.REMOVE:
+						for (int i = 0; i < count; i++) {
+							int componentId = commands.getComponentId(command, i);
+							signature.clear(componentId);
+							setPendingComponent(componentId, null);
+						}
+						changed = true;
+						break;
+				}
+			}
+
+			if (destroyed) {
+				for (int i = 0; i < pendingComponentIds.size; i++) { //never reached the entity, so freeEntity won't see them
+					freeComponent(pendingComponents[pendingComponentIds.get(i)]);
+				}
+
+				if (created) { //never joined anything, so there's nothing to remove it from
+					releaseIndex(entity);
+					freeEntities.add(entity);
+				} else {
+					freeEntity(entity);
+				}
+			} else if (created || changed) {
+				entity.setArchetype(getArchetype(signature));
+				for (int i = 0; i < pendingComponentIds.size; i++) {
+					int componentId = pendingComponentIds.get(i);
+					if (pendingComponents[componentId] != null) {
+						entity.archetype.setComponent(componentId, entity.row, pendingComponents[componentId]);
+					}
+				}
+
+				if (created) {
+					onEntityAdded(entity);
+				} else {
+					onEntityChanged(entity);
+				}
+			}
+
+			for (int i = 0; i < pendingComponentIds.size; i++) {
+				pendingComponents[pendingComponentIds.get(i)] = null;
+			}
+			pendingComponentIds.clear();
+		}
+
+		commands.clear();
+		flushing = false;
+		notifyQueries();
+	}
+
+	private void setPendingComponent(int componentId, Component component) {
+		if (componentId >= pendingComponents.length) {
+			Component[] newPendingComponents = new Component[Math.max(componentId + 1, pendingComponents.length * 2)];
+			System.arraycopy(pendingComponents, 0, newPendingComponents, 0, pendingComponents.length);
+			pendingComponents = newPendingComponents;
+		}
+
+		if (pendingComponents[componentId] == null && !pendingComponentIds.contains(componentId)) {
+			pendingComponentIds.add(componentId);
+		}
+		pendingComponents[componentId] = component;
+	}
+
+	private void notifyQueries() {
+		if (!flushing) {
+			for (int i = 0; i < changedQueries.size; i++) {
+				changedQueries.get(i).notifyListeners();
+			}
+			changedQueries.clear();
+		}
+	}
+
 	// EntityManager.Listener ///////////////////////////////
 
 	private void onEntityAdded(Entity entity) {
 		for (Listener listener : listeners) {
 			listener.entityAdded(entity);
 		}
+		notifyQueries();
 	}
 
 	private void onEntityRemoved(Entity entity) {
 		for (Listener listener : listeners) {
 			listener.entityRemoved(entity);
 		}
+		notifyQueries();
 	}
 
 	private void onEntityChanged(Entity entity) {
 		for (Listener listener : listeners) {
 			listener.entityChanged(entity);
 		}
+		notifyQueries();
 	}
 }
@@ -0,0 +1,15 @@
+package norfenstein.util.entities;
+
+import com.badlogic.gdx.utils.Array;
+
+public final class SerialTaskRunner implements TaskRunner {
+	@Override public int getParallelism() {
+		return 1;
+	}
+
+	@Override public void run(Array<? extends Runnable> tasks) {
+		for (int i = 0; i < tasks.size; i++) {
+			tasks.get(i).run();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package norfenstein.util.entities;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+
+//updates systems in order, handing those whose component access doesn't conflict to the TaskRunner together
+public final class SystemScheduler {
+	private static final class SystemTask implements Runnable {
+		private final EntitySystem system;
+		private float delta;
+		private boolean timed;
+		private long totalNanos; //only written by whichever thread runs the task, and read between updates
+
+		SystemTask(EntitySystem system) {
+			this.system = system;
+		}
+
+		@Override public void run() {
+			if (timed) {
+				long start = TimeUtils.nanoTime();
+				system.update(delta);
+				totalNanos += TimeUtils.nanoTime() - start;
+			} else {
+				system.update(delta);
+			}
+		}
+	}
+
+	private final TaskRunner taskRunner;
+	private final Array<SystemTask> tasks;
+	private final Array<Array<SystemTask>> phases;
+	private boolean phasesDirty;
+	private boolean timed;
+
+	public SystemScheduler(TaskRunner taskRunner) {
+		this.taskRunner = taskRunner;
+
+		tasks = new Array<SystemTask>(true, 8);
+		phases = new Array<Array<SystemTask>>(true, 8);
+		phasesDirty = false;
+		timed = false;
+	}
+
+	public void add(EntitySystem system) {
+		SystemTask task = new SystemTask(system);
+		task.timed = timed;
+		tasks.add(task);
+		phasesDirty = true;
+	}
+
+	public void remove(EntitySystem system) {
+		for (int i = 0; i < tasks.size; i++) {
+			if (tasks.get(i).system == system) {
+				tasks.removeIndex(i);
+				phasesDirty = true;
+				return;
+			}
+		}
+	}
+
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+		for (int i = 0; i < tasks.size; i++) {
+			tasks.get(i).timed = timed;
+		}
+	}
+
+	public int getSystemCount() {
+		return tasks.size;
+	}
+
+	public EntitySystem getSystem(int index) {
+		return tasks.get(index).system;
+	}
+
+	//wall time spent in the system's updates while timing was on
+	public long getTotalNanos(int index) {
+		return tasks.get(index).totalNanos;
+	}
+
+	public int getPhaseCount() {
+		if (phasesDirty) buildPhases();
+		return phases.size;
+	}
+
+	public void update(float delta) {
+		if (phasesDirty) buildPhases();
+
+		boolean parallel = taskRunner.getParallelism() > 1;
+		for (int i = 0; i < phases.size; i++) {
+			Array<SystemTask> phase = phases.get(i);
+
+			for (int j = 0; j < phase.size; j++) {
+				phase.get(j).delta = delta;
+			}
+
+			if (parallel && phase.size > 1) {
+				taskRunner.run(phase);
+			} else {
+				for (int j = 0; j < phase.size; j++) {
+					phase.get(j).run();
+				}
+			}
+		}
+	}
+
+	//each system goes in the phase after the latest earlier system it conflicts with
+	private void buildPhases() {
+		phases.clear();
+
+		int[] taskPhases = new int[tasks.size];
+		for (int i = 0; i < tasks.size; i++) {
+			EntitySystem system = tasks.get(i).system;
+
+			int phase = 0;
+			for (int j = 0; j < i; j++) {
+				if (taskPhases[j] >= phase && system.conflictsWith(tasks.get(j).system)) {
+					phase = taskPhases[j] + 1;
+				}
+			}
+			taskPhases[i] = phase;
+
+			while (phases.size <= phase) {
+				phases.add(new Array<SystemTask>(true, 4));
+			}
+			phases.get(phase).add(tasks.get(i));
+		}
+
+		phasesDirty = false;
+	}
+}
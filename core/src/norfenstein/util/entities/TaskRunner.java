@@ -0,0 +1,9 @@
+package norfenstein.util.entities;
+
+import com.badlogic.gdx.utils.Array;
+
+//runs batches of independent tasks, possibly in parallel; backends without threads (GWT) use SerialTaskRunner
+public interface TaskRunner {
+	int getParallelism();
+	void run(Array<? extends Runnable> tasks); //returns once every task has finished
+}
@@ -1,25 +1,132 @@
 package norfenstein.util.entities;
 
+import com.badlogic.gdx.utils.Array;
 import norfenstein.util.entities.EntityStore.Entity;
 
 public abstract class DeltaIteratingSystem extends IteratingSystem {
-	public DeltaIteratingSystem(EntityManager entityManager, long componentBitMask) {
-		super(entityManager, componentBitMask);
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+
+	//a run of query slots processed by one task, with scratch state that's reused from step to step
+	private final class Chunk implements Runnable {
+		private int index;
+		private int start;
+		private int end;
+		private float delta;
+		private final Object scratch;
+
+		Chunk() {
+			scratch = createScratch();
+		}
+
+		@Override public void run() {
+			beginChunk(index, scratch);
+			for (int slot = start; slot < end; slot++) {
+				Entity entity = query.getSlot(slot);
+				if (entity != null) {
+					processEntity(entity, delta, scratch);
+				}
+			}
+		}
 	}
 
-	public final void process(float delta) {
-		super.updateEntities();
+	private TaskRunner taskRunner;
+	private int chunkSize;
+	private final Array<Chunk> chunks;
+	private final Array<Chunk> activeChunks;
 
+	public DeltaIteratingSystem(EntityManager entityManager, ComponentSignature signature) {
+		super(entityManager, signature);
+
+		taskRunner = null;
+		chunkSize = DEFAULT_CHUNK_SIZE;
+		chunks = new Array<Chunk>(true, 4);
+		activeChunks = new Array<Chunk>(true, 4);
+	}
+
+	//processEntity() may only touch the entity and its scratch in parallel; a null runner turns it off
+	public final void setParallel(TaskRunner taskRunner) {
+		setParallel(taskRunner, DEFAULT_CHUNK_SIZE);
+	}
+	public final void setParallel(TaskRunner taskRunner, int chunkSize) {
+		this.taskRunner = taskRunner;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	@Override public final void update(float delta) {
+		process(delta);
+	}
+
+	public final void process(float delta) {
 		begin(delta);
-		for (Entity entity : super.entities) {
-			processEntity(entity, delta);
+		//entities that join during the pass are picked up next time; ones that leave are skipped
+		super.query.lock();
+		try {
+			int slotCount = super.query.slotCount();
+			if (taskRunner != null && taskRunner.getParallelism() > 1 && slotCount > chunkSize) {
+				processChunks(slotCount, delta);
+			} else {
+				//walked in the same chunks as in parallel mode, so beginChunk() sees the same boundaries either way
+				for (int start = 0, i = 0; start < slotCount; start += chunkSize, i++) {
+					beginChunk(i, null);
+					int end = Math.min(start + chunkSize, slotCount);
+					for (int slot = start; slot < end; slot++) {
+						Entity entity = super.query.getSlot(slot);
+						if (entity != null) {
+							processEntity(entity, delta);
+						}
+					}
+				}
+			}
+		} finally {
+			super.query.unlock(); //the query is shared, so an exception here mustn't leave it locked for every other user
 		}
 		end(delta);
 	}
 
+	//chunk boundaries depend only on the slot count, so merges happen in the same order on every run
+	private void processChunks(int slotCount, float delta) {
+		activeChunks.clear();
+		for (int start = 0, i = 0; start < slotCount; start += chunkSize, i++) {
+			if (i == chunks.size) {
+				chunks.add(new Chunk());
+			}
+
+			Chunk chunk = chunks.get(i);
+			chunk.index = i;
+			chunk.start = start;
+			chunk.end = Math.min(start + chunkSize, slotCount);
+			chunk.delta = delta;
+			activeChunks.add(chunk);
+		}
+
+		taskRunner.run(activeChunks);
+
+		for (int i = 0; i < activeChunks.size; i++) {
+			mergeScratch(activeChunks.get(i).scratch, delta);
+		}
+	}
+
 	protected void begin(float delta) { }
 
+	//before each chunk's entities; scratch is null unless running in parallel
+	protected void beginChunk(int chunk, Object scratch) { }
+
 	protected abstract void processEntity(Entity entity, float delta);
 
+	// Parallel mode ////////////////////////////////////////
+
+	//one per chunk, created the first time the chunk is needed
+	protected Object createScratch() {
+		return null;
+	}
+
+	//called from worker threads; the default is only safe if processEntity(Entity, float) keeps to its own entity
+	protected void processEntity(Entity entity, float delta, Object scratch) {
+		processEntity(entity, delta);
+	}
+
+	//called on the calling thread for each chunk in turn once they've all finished, for side effects that aren't thread safe
+	protected void mergeScratch(Object scratch, float delta) { }
+
 	protected void end(float delta) { }
 }
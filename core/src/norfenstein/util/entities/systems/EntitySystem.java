@@ -3,16 +3,48 @@ package norfenstein.util.entities;
 import java.lang.IllegalArgumentException;
 import norfenstein.util.entities.EntityStore.Entity;
 
-public abstract class EntitySystem implements EntityManager.Listener {
+public abstract class EntitySystem {
 	protected final EntityManager entityManager;
-	protected long componentBitMask;
+	protected final ComponentSignature signature;
 
-	protected EntitySystem(EntityManager entityManager, long componentBitMask) {
+	//component types this system touches, for SystemScheduler; a system that declares neither is run on its own
+	private final ComponentSignature reads;
+	private final ComponentSignature writes;
+	private boolean accessDeclared;
+
+	protected EntitySystem(EntityManager entityManager, ComponentSignature signature) {
 		this.entityManager = entityManager;
-		this.componentBitMask = componentBitMask;
+		this.signature = new ComponentSignature(signature);
+
+		reads = new ComponentSignature();
+		writes = new ComponentSignature();
+		accessDeclared = false;
 	}
 
+	public abstract void update(float delta);
+
 	protected final boolean acceptEntity(Entity entity) {
-		return (componentBitMask & entity.getComponentBitMask()) == componentBitMask;
+		return entity.getComponentSignature().containsAll(signature);
+	}
+
+	protected final void declareReads(int... componentIds) {
+		for (int componentId : componentIds) {
+			reads.set(componentId);
+		}
+		accessDeclared = true;
+	}
+
+	protected final void declareWrites(int... componentIds) {
+		for (int componentId : componentIds) {
+			writes.set(componentId);
+		}
+		accessDeclared = true;
+	}
+
+	//true if the two systems can't safely run at the same time
+	public final boolean conflictsWith(EntitySystem system) {
+		if (!accessDeclared || !system.accessDeclared) return true;
+
+		return writes.intersects(system.writes) || writes.intersects(system.reads) || reads.intersects(system.writes);
 	}
 }
@@ -3,16 +3,28 @@ package norfenstein.util.entities;
 import norfenstein.util.entities.EntityStore.Entity;
 
 public abstract class InstantIteratingSystem extends IteratingSystem {
-	public InstantIteratingSystem(EntityManager entityManager, long componentBitMask) {
-		super(entityManager, componentBitMask);
+	public InstantIteratingSystem(EntityManager entityManager, ComponentSignature signature) {
+		super(entityManager, signature);
 	}
 
-	public final void process() {
-		super.updateEntities();
+	@Override public final void update(float delta) {
+		process();
+	}
 
+	public final void process() {
 		begin();
-		for (Entity entity : super.entities) {
-			processEntity(entity);
+		//entities that join during the pass are picked up next time; ones that leave are skipped
+		super.query.lock();
+		try {
+			int slotCount = super.query.slotCount();
+			for (int slot = 0; slot < slotCount; slot++) {
+				Entity entity = super.query.getSlot(slot);
+				if (entity != null) {
+					processEntity(entity);
+				}
+			}
+		} finally {
+			super.query.unlock(); //shared with other systems, which would otherwise see it locked for good
 		}
 		end();
 	}
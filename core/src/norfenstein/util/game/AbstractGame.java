@@ -2,16 +2,70 @@ package norfenstein.util.game;
 
 import com.badlogic.gdx.ApplicationListener;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.TimeUtils;
 
 public abstract class AbstractGame implements ApplicationListener {
+	//what happens to the time still owed once a frame has run as many steps as it's allowed
+	public enum CatchUpPolicy {
+		DROP_TIME, //forget it; the simulation picks up from now as if the slow frame never happened
+		SLOW_DOWN //keep all of it for later frames, so the simulation runs behind real time until frames have steps to spare
+	}
+
 	protected final float timeStep;
 	private float remainingTime;
 
+	private int maxStepsPerFrame;
+	private long stepBudgetNanos;
+	private CatchUpPolicy catchUpPolicy;
+
+	private int lastStepCount;
+	private long frameCount;
+	private long clampedFrameCount;
+	private float droppedTime;
+
+	private FrameProfiler profiler;
+	private ProfilerOverlay profilerOverlay;
+	private int frameMetric;
+	private int stepsMetric;
+	private int stepCountMetric;
+	private int inputMetric;
+	private int renderMetric;
+
 	protected abstract Screen getCurrentScreen();
 
 	protected AbstractGame(float timeStep) {
 		this.timeStep = timeStep;
 		remainingTime = 0f;
+
+		setCatchUp(5, 0.05f, CatchUpPolicy.DROP_TIME);
+	}
+
+	//at most maxStepsPerFrame steps per frame, and none past budgetSeconds, though always at least one if due
+	public void setCatchUp(int maxStepsPerFrame, float budgetSeconds, CatchUpPolicy catchUpPolicy) {
+		this.maxStepsPerFrame = Math.max(maxStepsPerFrame, 1);
+		this.stepBudgetNanos = (long)(budgetSeconds * 1e9);
+		this.catchUpPolicy = catchUpPolicy;
+	}
+
+	//records each frame's steps, input and rendering until set back to null
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+		if (profiler == null) return;
+
+		frameMetric = profiler.addMetric("frame", FrameProfiler.Unit.NANOS);
+		stepsMetric = profiler.addMetric("frame.steps", FrameProfiler.Unit.NANOS);
+		stepCountMetric = profiler.addMetric("frame.stepCount", FrameProfiler.Unit.COUNT);
+		inputMetric = profiler.addMetric("frame.input", FrameProfiler.Unit.NANOS);
+		renderMetric = profiler.addMetric("frame.render", FrameProfiler.Unit.NANOS);
+	}
+
+	public FrameProfiler getProfiler() {
+		return profiler;
+	}
+
+	//drawn over the screen each frame while there's a profiler; not counted in the frame's time
+	public void setProfilerOverlay(ProfilerOverlay profilerOverlay) {
+		this.profilerOverlay = profilerOverlay;
 	}
 
 	@Override public abstract void create();
@@ -27,15 +81,82 @@ public abstract class AbstractGame implements ApplicationListener {
 	}
 
 	@Override public void render() {
+		long startNanos = TimeUtils.nanoTime();
+		int steps = 0;
 		for (remainingTime += Gdx.graphics.getRawDeltaTime(); remainingTime >= timeStep; remainingTime -= timeStep) {
+			if (steps >= maxStepsPerFrame || (steps > 0 && TimeUtils.nanoTime() - startNanos > stepBudgetNanos)) {
+				clampCatchUp();
+				break;
+			}
+
 			getCurrentScreen().step(timeStep);
+			steps++;
 		}
+		lastStepCount = steps;
+		frameCount++;
+
+		long inputNanos = TimeUtils.nanoTime();
 		getCurrentScreen().processInput(Gdx.graphics.getRawDeltaTime());
-		getCurrentScreen().render(Gdx.graphics.getRawDeltaTime());
+
+		long renderNanos = TimeUtils.nanoTime();
+		getCurrentScreen().render(Gdx.graphics.getRawDeltaTime(), Math.min(remainingTime / timeStep, 1f)); //time left over is the fraction of a step not yet simulated
+
+		if (profiler != null) {
+			long endNanos = TimeUtils.nanoTime();
+			profiler.add(frameMetric, endNanos - startNanos);
+			profiler.add(stepsMetric, inputNanos - startNanos);
+			profiler.add(stepCountMetric, steps);
+			profiler.add(inputMetric, renderNanos - inputNanos);
+			profiler.add(renderMetric, endNanos - renderNanos);
+			profiler.endFrame();
+
+			if (profilerOverlay != null) profilerOverlay.draw(profiler);
+		}
 	}
 
 	@Override public final void resize(int width, int height) {
 		getCurrentScreen().resize(width, height);
-	} 
-}
+	}
+
+	// Catch-up metrics //////////////////////////////////////////////////
+
+	//steps run by the last frame
+	public int getLastStepCount() {
+		return lastStepCount;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	//frames that stopped stepping before catching up
+	public long getClampedFrameCount() {
+		return clampedFrameCount;
+	}
 
+	//simulation seconds that were owed but never stepped; always 0 under SLOW_DOWN
+	public float getDroppedTime() {
+		return droppedTime;
+	}
+
+	//simulation seconds owed but not stepped yet; only more than a step while SLOW_DOWN is working off a backlog
+	public float getOwedTime() {
+		return remainingTime;
+	}
+
+	public void resetCatchUpMetrics() {
+		frameCount = 0;
+		clampedFrameCount = 0;
+		droppedTime = 0;
+	}
+
+	private void clampCatchUp() {
+		clampedFrameCount++;
+
+		if (catchUpPolicy == CatchUpPolicy.DROP_TIME) {
+			float keptTime = remainingTime % timeStep; //the fraction of a step, so interpolation stays smooth
+			droppedTime += remainingTime - keptTime;
+			remainingTime = keptTime;
+		}
+	}
+}
@@ -26,7 +26,7 @@ public abstract class AbstractSwitchableScreen implements SwitchableScreen, Inpu
 
 	@Override public void processInput(float delta) { }
 
-	@Override public abstract void render(float delta);
+	@Override public abstract void render(float delta, float alpha);
 
 	// InputProcessor //////////////////////////////////////////////////
 
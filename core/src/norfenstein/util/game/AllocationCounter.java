@@ -0,0 +1,6 @@
+package norfenstein.util.game;
+
+//bytes allocated so far, for platforms whose runtime will say; FrameProfiler records the difference from frame to frame
+public interface AllocationCounter {
+	long getAllocatedBytes();
+}
@@ -0,0 +1,296 @@
+package norfenstein.util.game;
+
+import com.badlogic.gdx.utils.Array;
+import java.util.Arrays;
+import norfenstein.util.entities.EntitySystem;
+import norfenstein.util.entities.IteratingSystem;
+import norfenstein.util.entities.SystemScheduler;
+
+//the last historySize frames of named metrics, for percentiles and dumps; doesn't allocate once metrics are added
+public final class FrameProfiler {
+	public enum Unit {
+		NANOS,
+		COUNT,
+		BYTES
+	}
+
+	//something read once per frame at endFrame()
+	private static abstract class Source {
+		abstract void sample(FrameProfiler profiler);
+	}
+
+	private static final class PhaseTimerSource extends Source {
+		final PhaseTimer timer;
+		final int firstMetric;
+		final long[] lastTotals;
+
+		PhaseTimerSource(PhaseTimer timer, int firstMetric) {
+			this.timer = timer;
+			this.firstMetric = firstMetric;
+			lastTotals = new long[timer.getPhaseCount()];
+		}
+
+		@Override void sample(FrameProfiler profiler) {
+			for (int phase = 0; phase < lastTotals.length; phase++) {
+				long total = timer.getTotalNanos(phase);
+				profiler.add(firstMetric + phase, total >= lastTotals[phase] ? total - lastTotals[phase] : total); //less means it was reset
+				lastTotals[phase] = total;
+			}
+		}
+	}
+
+	private static final class SchedulerSource extends Source {
+		final SystemScheduler scheduler;
+		final EntitySystem[] systems;
+		final int[] timeMetrics;
+		final int[] countMetrics; //-1 for systems that don't iterate
+		final long[] lastTotals;
+
+		SchedulerSource(SystemScheduler scheduler) {
+			this.scheduler = scheduler;
+			int systemCount = scheduler.getSystemCount();
+			systems = new EntitySystem[systemCount];
+			timeMetrics = new int[systemCount];
+			countMetrics = new int[systemCount];
+			lastTotals = new long[systemCount];
+		}
+
+		@Override void sample(FrameProfiler profiler) {
+			int systemCount = Math.min(scheduler.getSystemCount(), systems.length);
+			for (int i = 0; i < systemCount; i++) {
+				if (scheduler.getSystem(i) != systems[i]) continue; //systems removed since, which shift everything after them
+
+				long total = scheduler.getTotalNanos(i);
+				profiler.add(timeMetrics[i], total - lastTotals[i]);
+				lastTotals[i] = total;
+
+				if (countMetrics[i] >= 0) {
+					profiler.set(countMetrics[i], ((IteratingSystem)systems[i]).getEntityCount());
+				}
+			}
+		}
+	}
+
+	private static final class AllocationSource extends Source {
+		final AllocationCounter counter;
+		final int metric;
+		long lastBytes;
+		boolean started; //counters may only count the thread reading them, so the first reading is taken at a frame end
+
+		AllocationSource(AllocationCounter counter, int metric) {
+			this.counter = counter;
+			this.metric = metric;
+			started = false;
+		}
+
+		@Override void sample(FrameProfiler profiler) {
+			long bytes = counter.getAllocatedBytes();
+			if (started) profiler.add(metric, bytes - lastBytes);
+			lastBytes = bytes;
+			started = true;
+		}
+	}
+
+	private final int historySize;
+	private final Array<String> names;
+	private final Array<Unit> units;
+	private final Array<Source> sources;
+
+	private long[] current; //this frame, by metric
+	private long[] history; //historySize values per metric, oldest overwritten first
+	private int next; //where the frame being recorded goes
+	private int sampleCount;
+
+	private final long[] sorted;
+	private int sortedMetric;
+
+	public FrameProfiler(int historySize) {
+		this.historySize = historySize;
+
+		names = new Array<String>(true, 16);
+		units = new Array<Unit>(true, 16);
+		sources = new Array<Source>(true, 4);
+
+		current = new long[0];
+		history = new long[0];
+		next = 0;
+		sampleCount = 0;
+
+		sorted = new long[historySize];
+		sortedMetric = -1;
+	}
+
+	// Setup //////////////////////////////////////////////////
+
+	public int addMetric(String name, Unit unit) {
+		names.add(name);
+		units.add(unit);
+
+		current = Arrays.copyOf(current, names.size);
+		history = Arrays.copyOf(history, names.size * historySize); //new metrics read as zero for frames before they existed
+		return names.size - 1;
+	}
+
+	//one metric per phase, named prefix + phase name, with the time the phase took each frame
+	public void addPhaseTimer(PhaseTimer timer, String prefix) {
+		int firstMetric = names.size;
+		for (int phase = 0; phase < timer.getPhaseCount(); phase++) {
+			addMetric(prefix + timer.getName(phase), Unit.NANOS);
+		}
+		sources.add(new PhaseTimerSource(timer, firstMetric));
+	}
+
+	//for the scheduler's current systems, which should have timing on
+	public void addScheduler(SystemScheduler scheduler, String prefix) {
+		SchedulerSource source = new SchedulerSource(scheduler);
+		for (int i = 0; i < source.systems.length; i++) {
+			EntitySystem system = scheduler.getSystem(i);
+			String name = prefix + getSimpleName(system.getClass());
+
+			source.systems[i] = system;
+			source.timeMetrics[i] = addMetric(name, Unit.NANOS);
+			source.countMetrics[i] = system instanceof IteratingSystem ? addMetric(name + ".entities", Unit.COUNT) : -1;
+			source.lastTotals[i] = scheduler.getTotalNanos(i);
+		}
+		sources.add(source);
+	}
+
+	public void addAllocationCounter(AllocationCounter counter, String name) {
+		sources.add(new AllocationSource(counter, addMetric(name, Unit.BYTES)));
+	}
+
+	// Recording //////////////////////////////////////////////////
+
+	public void add(int metric, long value) {
+		current[metric] += value;
+	}
+
+	public void set(int metric, long value) {
+		current[metric] = value;
+	}
+
+	public void endFrame() {
+		for (int i = 0; i < sources.size; i++) {
+			sources.get(i).sample(this);
+		}
+
+		for (int metric = 0; metric < current.length; metric++) {
+			history[metric * historySize + next] = current[metric];
+			current[metric] = 0;
+		}
+
+		next = (next + 1) % historySize;
+		if (sampleCount < historySize) sampleCount++;
+		sortedMetric = -1;
+	}
+
+	public void clear() {
+		Arrays.fill(current, 0);
+		Arrays.fill(history, 0);
+		next = 0;
+		sampleCount = 0;
+		sortedMetric = -1;
+	}
+
+	// Results //////////////////////////////////////////////////
+
+	public int getMetricCount() {
+		return names.size;
+	}
+
+	public String getName(int metric) {
+		return names.get(metric);
+	}
+
+	public Unit getUnit(int metric) {
+		return units.get(metric);
+	}
+
+	//frames currently in the history
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	//as of the last finished frame
+	public long getLast(int metric) {
+		if (sampleCount == 0) return 0;
+		return history[metric * historySize + (next + historySize - 1) % historySize];
+	}
+
+	public long getMean(int metric) {
+		if (sampleCount == 0) return 0;
+
+		long total = 0;
+		for (int i = 0; i < sampleCount; i++) {
+			total += history[metric * historySize + i];
+		}
+		return total / sampleCount;
+	}
+
+	public long getMax(int metric) {
+		return getPercentile(metric, 1f);
+	}
+
+	//nearest rank over the history, so p50, p95 and p99 of one metric in a row only sort once
+	public long getPercentile(int metric, float percentile) {
+		if (sampleCount == 0) return 0;
+
+		if (sortedMetric != metric) {
+			System.arraycopy(history, metric * historySize, sorted, 0, sampleCount);
+			Arrays.sort(sorted, 0, sampleCount);
+			sortedMetric = metric;
+		}
+
+		int rank = (int)Math.ceil(percentile * sampleCount);
+		return sorted[Math.min(Math.max(rank, 1), sampleCount) - 1];
+	}
+
+	// Dumps //////////////////////////////////////////////////
+
+	//one row per metric, in the metric's own unit
+	public void writeCsv(StringBuilder out) {
+		out.append("metric,unit,last,mean,p50,p95,p99,max\n");
+		for (int metric = 0; metric < names.size; metric++) {
+			out.append(names.get(metric)).append(',').append(unitName(metric));
+			out.append(',').append(getLast(metric));
+			out.append(',').append(getMean(metric));
+			out.append(',').append(getPercentile(metric, 0.5f));
+			out.append(',').append(getPercentile(metric, 0.95f));
+			out.append(',').append(getPercentile(metric, 0.99f));
+			out.append(',').append(getMax(metric));
+			out.append('\n');
+		}
+	}
+
+	//metric names are written as is, so they shouldn't need escaping
+	public void writeJson(StringBuilder out) {
+		out.append("{\"frames\":").append(sampleCount).append(",\"metrics\":[");
+		for (int metric = 0; metric < names.size; metric++) {
+			if (metric > 0) out.append(',');
+			out.append("{\"name\":\"").append(names.get(metric));
+			out.append("\",\"unit\":\"").append(unitName(metric));
+			out.append("\",\"last\":").append(getLast(metric));
+			out.append(",\"mean\":").append(getMean(metric));
+			out.append(",\"p50\":").append(getPercentile(metric, 0.5f));
+			out.append(",\"p95\":").append(getPercentile(metric, 0.95f));
+			out.append(",\"p99\":").append(getPercentile(metric, 0.99f));
+			out.append(",\"max\":").append(getMax(metric));
+			out.append('}');
+		}
+		out.append("]}\n");
+	}
+
+	private String unitName(int metric) {
+		switch (units.get(metric)) {
+			case NANOS: return "ns";
+			case BYTES: return "bytes";
+			default: return "count";
+		}
+	}
+
+	//Class.getSimpleName() isn't available everywhere (GWT)
+	private static String getSimpleName(Class<?> type) {
+		String name = type.getName();
+		return name.substring(Math.max(name.lastIndexOf('.'), name.lastIndexOf('$')) + 1);
+	}
+}
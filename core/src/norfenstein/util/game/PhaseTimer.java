@@ -0,0 +1,64 @@
+package norfenstein.util.game;
+
+import com.badlogic.gdx.utils.TimeUtils;
+
+//wall time per named phase; start() closes whichever phase was running
+public final class PhaseTimer {
+	private final String[] names;
+	private final long[] totalNanos;
+	private final int[] counts;
+	private int current;
+	private long startNanos;
+
+	public PhaseTimer(String... names) {
+		this.names = names;
+		totalNanos = new long[names.length];
+		counts = new int[names.length];
+		current = -1;
+	}
+
+	public void start(int phase) {
+		long now = TimeUtils.nanoTime();
+		close(now);
+
+		current = phase;
+		startNanos = now;
+	}
+
+	public void stop() {
+		close(TimeUtils.nanoTime());
+		current = -1;
+	}
+
+	public void reset() {
+		for (int i = 0; i < names.length; i++) {
+			totalNanos[i] = 0;
+			counts[i] = 0;
+		}
+		current = -1;
+	}
+
+	public int getPhaseCount() {
+		return names.length;
+	}
+
+	public String getName(int phase) {
+		return names[phase];
+	}
+
+	public long getTotalNanos(int phase) {
+		return totalNanos[phase];
+	}
+
+	//number of times the phase was started since the last reset
+	public int getCount(int phase) {
+		return counts[phase];
+	}
+
+	private void close(long now) {
+		if (current >= 0) {
+			totalNanos[current] += now - startNanos;
+			counts[current]++;
+		}
+	}
+}
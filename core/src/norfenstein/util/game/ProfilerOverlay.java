@@ -0,0 +1,65 @@
+package norfenstein.util.game;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+
+//p50/p95/p99 of every profiler metric in the top left corner, times in microseconds and allocations in kilobytes
+public final class ProfilerOverlay {
+	private final SpriteBatch batch;
+	private final BitmapFont font;
+	private final StringBuilder line;
+
+	public ProfilerOverlay() {
+		batch = new SpriteBatch();
+		font = new BitmapFont();
+		font.setColor(Color.YELLOW);
+		line = new StringBuilder(64);
+	}
+
+	public void dispose() {
+		batch.dispose();
+		font.dispose();
+	}
+
+	public void draw(FrameProfiler profiler) {
+		int height = Gdx.graphics.getHeight();
+		batch.getProjectionMatrix().setToOrtho2D(0, 0, Gdx.graphics.getWidth(), height);
+
+		batch.begin();
+		float y = height - 4;
+		for (int metric = 0; metric < profiler.getMetricCount(); metric++) {
+			FrameProfiler.Unit unit = profiler.getUnit(metric);
+
+			line.setLength(0);
+			line.append(profiler.getName(metric)).append(' ');
+			appendValue(profiler.getPercentile(metric, 0.5f), unit);
+			line.append(" / ");
+			appendValue(profiler.getPercentile(metric, 0.95f), unit);
+			line.append(" / ");
+			appendValue(profiler.getPercentile(metric, 0.99f), unit);
+
+			font.draw(batch, line, 4, y);
+			y -= font.getLineHeight();
+		}
+		batch.end();
+	}
+
+	//one decimal place, without going through String.format
+	private void appendValue(long value, FrameProfiler.Unit unit) {
+		long tenths;
+		switch (unit) {
+			case NANOS:
+				tenths = value / 100;
+				break;
+			case BYTES:
+				tenths = value * 10 / 1024;
+				break;
+			default:
+				line.append(value);
+				return;
+		}
+		line.append(tenths / 10).append('.').append(Math.abs(tenths % 10));
+	}
+}
@@ -7,6 +7,7 @@ public interface Screen {
 
 	void step(float delta);
 	void processInput(float delta);
-	void render(float delta);
+	//alpha is how far the frame falls between the last step and the next one, from 0 to 1
+	void render(float delta, float alpha);
 }
 
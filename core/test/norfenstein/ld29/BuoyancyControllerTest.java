@@ -0,0 +1,79 @@
+package norfenstein.ld29;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+//SegmentTable's lookup against the closed form it samples, held to the bound documented there
+public class BuoyancyControllerTest {
+	private static final float AREA_BOUND = 2e-4f; //times r^2
+	private static final float CENTROID_BOUND = 7e-5f; //times r
+	private static final float[] RADII = { 0.05f, 0.3f, 1f, 4f, 25f };
+	private static final int DEPTHS = 4000;
+
+	//the closed form loses float precision on thin slivers at the bottom
+	private static final float EXACT_MIN_DEPTH = -0.98f;
+
+	@Test public void fastMatchesExactUpright() {
+		compareWithExact(0, 1, 0);
+	}
+
+	@Test public void fastMatchesExactTilted() {
+		float angle = 0.7f;
+		compareWithExact((float)Math.sin(angle), (float)Math.cos(angle), 2.5f);
+	}
+
+	//the whole range, against the closed form worked out in doubles
+	@Test public void fastMatchesClosedFormAtEveryDepth() {
+		float[] centroid = new float[2];
+
+		for (float r : RADII) {
+			for (int i = 1; i < DEPTHS; i++) {
+				double depth = -1 + 2.0 * i / DEPTHS;
+				double area = Math.asin(depth) + Math.PI / 2 + depth * Math.sqrt(1 - depth * depth);
+				double offset = -2.0 / 3.0 * Math.pow(1 - depth * depth, 1.5) / area;
+				String where = "r=" + r + " depth=" + depth;
+
+				float y = (float)(-depth * r);
+				float fast = BuoyancyController.computeSubmergedAreaFast(0, y, r, 0, 1, 0, centroid);
+				assertEquals(where, area * r * r, fast, AREA_BOUND * r * r);
+				assertEquals(where, 0, centroid[0], 0);
+				assertEquals(where, y + offset * r, centroid[1], CENTROID_BOUND * r);
+			}
+		}
+	}
+
+	@Test public void fastMatchesExactWhenDryOrWet() {
+		float[] exactCentroid = new float[2];
+		float[] fastCentroid = new float[2];
+
+		assertEquals(0, BuoyancyController.computeSubmergedAreaFast(0, 3, 1, 0, 1, 0, fastCentroid), 0);
+
+		float exact = BuoyancyController.computeSubmergedArea(0, -3, 1, 0, 1, 0, exactCentroid);
+		float fast = BuoyancyController.computeSubmergedAreaFast(0, -3, 1, 0, 1, 0, fastCentroid);
+		assertEquals(exact, fast, 0);
+		assertEquals(exactCentroid[0], fastCentroid[0], 0);
+		assertEquals(exactCentroid[1], fastCentroid[1], 0);
+	}
+
+	//moves circles of every radius down through the surface, from a sliver wet to all but a sliver
+	private static void compareWithExact(float normalX, float normalY, float offset) {
+		float[] exactCentroid = new float[2];
+		float[] fastCentroid = new float[2];
+
+		for (float r : RADII) {
+			for (int i = 0; i <= DEPTHS; i++) {
+				float depth = EXACT_MIN_DEPTH + (1 - EXACT_MIN_DEPTH) * i / DEPTHS; //surface height above the center, in radii
+				float x = normalX * (offset - depth * r);
+				float y = normalY * (offset - depth * r);
+				String where = "r=" + r + " depth=" + depth;
+
+				float exact = BuoyancyController.computeSubmergedArea(x, y, r, normalX, normalY, offset, exactCentroid);
+				float fast = BuoyancyController.computeSubmergedAreaFast(x, y, r, normalX, normalY, offset, fastCentroid);
+				assertEquals(where, exact, fast, AREA_BOUND * r * r);
+				assertEquals(where, exactCentroid[0], fastCentroid[0], CENTROID_BOUND * r);
+				assertEquals(where, exactCentroid[1], fastCentroid[1], CENTROID_BOUND * r);
+			}
+		}
+	}
+}
@@ -3,13 +3,33 @@ package norfenstein.ld29.desktop;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import norfenstein.ld29.LD29;
+import norfenstein.util.game.FrameProfiler;
 
+//usage: DesktopLauncher [--profile] [--record file]
 public class DesktopLauncher {
+	private static final int PROFILE_FRAMES = 600; //ten seconds at 60 fps
+
 	public static void main (String[] arg) {
+		FrameProfiler profiler = null;
+		String recordingPath = null;
+		for (int i = 0; i < arg.length; i++) {
+			String argument = arg[i];
+			if (argument.equals("--record")) {
+				recordingPath = arg[++i];
+			} else if (argument.equals("--profile")) {
+				profiler = new FrameProfiler(PROFILE_FRAMES);
+
+				ThreadAllocationCounter allocationCounter = ThreadAllocationCounter.create();
+				if (allocationCounter != null) profiler.addAllocationCounter(allocationCounter, "frame.allocated");
+			}
+		}
+
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
 		config.title = "Splashy Bird!";
 		config.width = 480;
 		config.height = 640;
-		new LwjglApplication(new LD29(), config);
+		LD29 game = new LD29(new ForkJoinTaskRunner(), profiler);
+		game.setRecordingPath(recordingPath);
+		new LwjglApplication(game, config);
 	}
 }
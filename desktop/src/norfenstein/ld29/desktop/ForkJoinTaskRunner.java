@@ -0,0 +1,113 @@
+package norfenstein.ld29.desktop;
+
+import com.badlogic.gdx.utils.Array;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import norfenstein.util.entities.TaskRunner;
+
+//fork-join backed TaskRunner for the desktop; batches and their tasks are pooled, including those started from inside a task
+public final class ForkJoinTaskRunner implements TaskRunner {
+	private static final class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Runnable runnable;
+
+		@Override protected void compute() {
+			runnable.run();
+		}
+	}
+
+	private static final class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Array<Task> forks = new Array<Task>(true, 16);
+		private Array<? extends Runnable> runnables;
+
+		void set(Array<? extends Runnable> runnables) {
+			while (forks.size < runnables.size - 1) {
+				forks.add(new Task());
+			}
+
+			this.runnables = runnables;
+			reinitialize();
+		}
+
+		void clear() {
+			runnables = null;
+			for (int i = 0; i < forks.size; i++) {
+				forks.get(i).runnable = null;
+			}
+		}
+
+		@Override protected void compute() {
+			int forked = runnables.size - 1;
+			for (int i = 0; i < forked; i++) {
+				Task task = forks.get(i);
+				task.runnable = runnables.get(i + 1);
+				task.reinitialize();
+				task.fork();
+			}
+
+			try {
+				runnables.get(0).run(); //the worker running the batch takes the first task itself
+			} finally {
+				for (int i = 0; i < forked; i++) {
+					forks.get(i).quietlyJoin(); //even if the first task threw, so none is still running when the batch is reused
+				}
+			}
+
+			for (int i = 0; i < forked; i++) {
+				forks.get(i).join(); //rethrows the first failure among the forked tasks
+			}
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final Array<Batch> freeBatches; //one in use per caller at a time, so nested and concurrent runs each get their own
+
+	public ForkJoinTaskRunner() {
+		this(new ForkJoinPool());
+	}
+	public ForkJoinTaskRunner(ForkJoinPool pool) {
+		this.pool = pool;
+		freeBatches = new Array<Batch>(false, 4);
+	}
+
+	@Override public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	@Override public void run(Array<? extends Runnable> tasks) {
+		if (tasks.size == 0) return;
+
+		Batch batch = obtainBatch();
+		batch.set(tasks);
+		try {
+			if (ForkJoinTask.inForkJoinPool()) {
+				batch.invoke(); //already on a worker, which runs the batch itself
+			} else {
+				pool.invoke(batch);
+			}
+		} finally {
+			batch.clear();
+			freeBatch(batch);
+		}
+	}
+
+	public void dispose() {
+		pool.shutdown();
+	}
+
+	private Batch obtainBatch() {
+		synchronized (freeBatches) {
+			return freeBatches.size > 0 ? freeBatches.pop() : new Batch();
+		}
+	}
+
+	private void freeBatch(Batch batch) {
+		synchronized (freeBatches) {
+			freeBatches.add(batch);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package norfenstein.ld29.desktop;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import norfenstein.ld29.GameScreen;
+import norfenstein.ld29.Replay;
+import norfenstein.util.entities.SerialTaskRunner;
+import norfenstein.util.entities.TaskRunner;
+import norfenstein.util.game.FrameProfiler;
+import norfenstein.util.game.PhaseTimer;
+
+//steps the simulation without a window and reports ticks per second; args: [ticks] [ticks per report] [--serial] [--zero-alloc] [--seed n] [--replay file]
+public class HeadlessRunner {
+	private static final float TIME_STEP = 1f / 60;
+	private static final int WIDTH = 480; //same layout as DesktopLauncher's window
+	private static final int HEIGHT = 640;
+	private static final long DEFAULT_SEED = 29;
+
+	public static void main (String[] arg) {
+		long ticks = 36000;
+		int reportInterval = 3600;
+		boolean serial = false;
+		boolean zeroAlloc = false;
+		long seed = DEFAULT_SEED;
+		Replay replay = null;
+
+		int position = 0;
+		for (int i = 0; i < arg.length; i++) {
+			String argument = arg[i];
+			if (argument.equals("--serial")) {
+				serial = true;
+			} else if (argument.equals("--zero-alloc")) {
+				zeroAlloc = true;
+			} else if (argument.equals("--seed")) {
+				seed = Long.parseLong(arg[++i]);
+			} else if (argument.equals("--replay")) {
+				replay = Replay.fromBytes(readFile(arg[++i]));
+			} else if (position++ == 0) {
+				ticks = Long.parseLong(argument);
+			} else {
+				reportInterval = Integer.parseInt(argument);
+			}
+		}
+
+		TaskRunner taskRunner = serial ? new SerialTaskRunner() : new ForkJoinTaskRunner();
+		PhaseTimer phaseTimer = new PhaseTimer(GameScreen.STEP_PHASES);
+
+		GameScreen gameScreen = new GameScreen(taskRunner);
+		if (replay != null) {
+			gameScreen.createHeadless(replay);
+			ticks = replay.getStepCount();
+			if (ticks == 0) {
+				System.out.println("the replay has no ticks");
+				return;
+			}
+		} else {
+			gameScreen.createHeadless(WIDTH, HEIGHT, seed);
+		}
+		gameScreen.setPhaseTimer(phaseTimer);
+
+		FrameProfiler profiler = new FrameProfiler(reportInterval);
+		int tickMetric = profiler.addMetric("tick", FrameProfiler.Unit.NANOS);
+		gameScreen.setProfiler(profiler);
+		ThreadAllocationCounter allocationCounter = ThreadAllocationCounter.create();
+		int allocatedMetric = allocationCounter != null ? profiler.addMetric("tick.allocated", FrameProfiler.Unit.BYTES) : -1;
+		if (zeroAlloc && allocationCounter == null) {
+			System.out.println("--zero-alloc: this JVM can't count allocations");
+			System.exit(1);
+		}
+		long steadyTicks = 0;
+		long steadyAllocatingTicks = 0;
+		long steadyAllocatedBytes = 0;
+
+		System.out.println("stepping " + (ticks > 0 ? ticks + " ticks" : "until killed") + " with parallelism " + taskRunner.getParallelism());
+
+		long reportStart = System.nanoTime();
+		for (long tick = 1; ticks <= 0 || tick <= ticks; tick++) {
+			//measured around the step alone, since reporting allocates
+			if (replay != null) replay.queueInput(tick, gameScreen);
+			long allocatedBefore = allocationCounter != null ? allocationCounter.getAllocatedBytes() : 0;
+			long tickStart = System.nanoTime();
+			gameScreen.step(TIME_STEP);
+			profiler.add(tickMetric, System.nanoTime() - tickStart);
+
+			if (allocationCounter != null) {
+				long allocated = Math.max(allocationCounter.getAllocatedBytes() - allocatedBefore - allocationCounter.getReadOverhead(), 0);
+				profiler.add(allocatedMetric, allocated);
+
+				if (tick > reportInterval) { //the first interval is warm-up: pools, caches and JIT
+					steadyTicks++;
+					if (allocated > 0) steadyAllocatingTicks++;
+					steadyAllocatedBytes += allocated;
+				}
+			}
+			profiler.endFrame();
+
+			if (replay != null && gameScreen.getChecksum() != replay.getChecksum(tick)) {
+				System.out.println("replay diverged at tick " + tick);
+				System.exit(1);
+			}
+
+			if (tick % reportInterval == 0 || tick == ticks) {
+				long now = System.nanoTime();
+				report(tick, phaseTimer, now - reportStart);
+				reportPercentiles(profiler, tickMetric, allocatedMetric);
+
+				phaseTimer.reset();
+				reportStart = now;
+			}
+		}
+
+		StringBuilder csv = new StringBuilder();
+		profiler.writeCsv(csv);
+		System.out.print(csv);
+
+		gameScreen.dispose();
+		if (taskRunner instanceof ForkJoinTaskRunner) {
+			((ForkJoinTaskRunner)taskRunner).dispose();
+		}
+
+		if (replay != null) {
+			System.out.println("replay matched all " + ticks + " ticks");
+		}
+
+		if (zeroAlloc) {
+			System.out.println(steadyAllocatingTicks + " of " + steadyTicks + " steady-state ticks allocated, " + steadyAllocatedBytes + " bytes in all");
+			if (steadyTicks == 0 || steadyAllocatingTicks > 0) System.exit(1);
+		}
+	}
+
+	private static byte[] readFile(String path) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(path, "r");
+			try {
+				byte[] bytes = new byte[(int)file.length()];
+				file.readFully(bytes);
+				return bytes;
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't read " + path, e);
+		}
+	}
+
+	private static void report(long tick, PhaseTimer phaseTimer, long elapsedNanos) {
+		int steps = phaseTimer.getCount(0);
+		if (steps == 0) return;
+
+		StringBuilder line = new StringBuilder();
+		line.append("tick ").append(tick);
+		line.append(String.format(": %.0f ticks/s", steps / (elapsedNanos / 1e9)));
+		line.append(String.format(", %.1f us/tick (", elapsedNanos / 1e3 / steps));
+
+		for (int phase = 0; phase < phaseTimer.getPhaseCount(); phase++) {
+			if (phase > 0) line.append(", ");
+			line.append(phaseTimer.getName(phase));
+			line.append(String.format(" %.1f", phaseTimer.getTotalNanos(phase) / 1e3 / steps));
+		}
+
+		System.out.println(line.append(")"));
+	}
+
+	private static void reportPercentiles(FrameProfiler profiler, int tickMetric, int allocatedMetric) {
+		StringBuilder line = new StringBuilder("  tick us p50/p95/p99/max");
+		line.append(String.format(" %.1f/%.1f/%.1f/%.1f",
+			profiler.getPercentile(tickMetric, 0.5f) / 1e3,
+			profiler.getPercentile(tickMetric, 0.95f) / 1e3,
+			profiler.getPercentile(tickMetric, 0.99f) / 1e3,
+			profiler.getMax(tickMetric) / 1e3));
+
+		if (allocatedMetric >= 0) {
+			line.append(String.format(", allocated %d bytes/tick (max %d)", profiler.getMean(allocatedMetric), profiler.getMax(allocatedMetric)));
+		}
+
+		System.out.println(line);
+	}
+}
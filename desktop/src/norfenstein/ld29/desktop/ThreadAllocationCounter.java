@@ -0,0 +1,42 @@
+package norfenstein.ld29.desktop;
+
+import java.lang.management.ManagementFactory;
+import norfenstein.util.game.AllocationCounter;
+
+//bytes allocated by the calling thread, from HotSpot's ThreadMXBean; pool threads aren't included
+public class ThreadAllocationCounter implements AllocationCounter {
+	private final com.sun.management.ThreadMXBean threadBean;
+	private long readOverhead;
+
+	//null if the JVM can't count allocations
+	public static ThreadAllocationCounter create() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) return null;
+
+		com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean)threadBean;
+		if (!hotSpotBean.isThreadAllocatedMemorySupported()) return null;
+
+		hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+		return new ThreadAllocationCounter(hotSpotBean);
+	}
+
+	private ThreadAllocationCounter(com.sun.management.ThreadMXBean threadBean) {
+		this.threadBean = threadBean;
+
+		//older JVMs allocate an array or two per reading, which would otherwise show up in every difference
+		readOverhead = Long.MAX_VALUE;
+		for (int i = 0; i < 16; i++) {
+			long first = getAllocatedBytes();
+			readOverhead = Math.min(readOverhead, getAllocatedBytes() - first);
+		}
+	}
+
+	//bytes that reading the counter allocates itself, to take off the difference between two readings
+	public long getReadOverhead() {
+		return readOverhead;
+	}
+
+	@Override public long getAllocatedBytes() {
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
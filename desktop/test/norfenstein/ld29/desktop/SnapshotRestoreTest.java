@@ -0,0 +1,61 @@
+package norfenstein.ld29.desktop;
+
+import static org.junit.Assert.assertEquals;
+
+import norfenstein.ld29.GameScreen;
+import norfenstein.ld29.SimulationSnapshot;
+import norfenstein.util.entities.SerialTaskRunner;
+import org.junit.Test;
+
+//restored steps have to match the originals' checksums
+public class SnapshotRestoreTest {
+	private static final float TIME_STEP = 1f / 60;
+	private static final int WIDTH = 480; //same layout as DesktopLauncher's window
+	private static final int HEIGHT = 640;
+	private static final long SEED = 29;
+	private static final int FIRST_SAVE = 300;
+	private static final int SAVES = 5;
+	private static final int REPLAYED_STEPS = 400; //enough for dives, splashes and a fish or two between saves
+
+	@Test public void restoredStepsMatchTheOriginals() {
+		GameScreen gameScreen = new GameScreen(new SerialTaskRunner());
+		gameScreen.createHeadless(WIDTH, HEIGHT, SEED);
+		SimulationSnapshot snapshot = new SimulationSnapshot(gameScreen.getSnapshotCapacity());
+		int[] checksums = new int[REPLAYED_STEPS];
+
+		while (gameScreen.getStepCount() < FIRST_SAVE) {
+			step(gameScreen);
+		}
+
+		for (int save = 0; save < SAVES; save++) {
+			long saveStep = gameScreen.getStepCount();
+			gameScreen.saveSnapshot(snapshot);
+
+			for (int i = 0; i < REPLAYED_STEPS; i++) {
+				step(gameScreen);
+				checksums[i] = gameScreen.getChecksum();
+			}
+
+			gameScreen.restoreSnapshot(snapshot);
+
+			for (int i = 0; i < REPLAYED_STEPS; i++) {
+				step(gameScreen);
+				assertEquals("step " + (i + 1) + " after restoring step " + saveStep, checksums[i], gameScreen.getChecksum());
+			}
+		}
+
+		gameScreen.dispose();
+	}
+
+	//dives every one and a half seconds, with a flap in between, by step count so a restore replays the same input
+	private static void step(GameScreen gameScreen) {
+		long step = gameScreen.getStepCount();
+		if (step % 90 == 0 || step % 90 == 60) {
+			gameScreen.queueInput(true);
+		} else if (step % 90 == 40 || step % 90 == 62) {
+			gameScreen.queueInput(false);
+		}
+
+		gameScreen.step(TIME_STEP);
+	}
+}
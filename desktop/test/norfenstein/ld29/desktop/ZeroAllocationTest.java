@@ -0,0 +1,61 @@
+package norfenstein.ld29.desktop;
+
+import static org.junit.Assert.assertEquals;
+
+import norfenstein.ld29.GameScreen;
+import norfenstein.util.entities.SerialTaskRunner;
+import org.junit.Assume;
+import org.junit.Test;
+
+//no step after warm-up may allocate on the stepping thread; build.gradle runs tests with -Xint so the JIT doesn't
+public class ZeroAllocationTest {
+	private static final float TIME_STEP = 1f / 60;
+	private static final int WIDTH = 480; //same layout as DesktopLauncher's window
+	private static final int HEIGHT = 640;
+	private static final long SEED = 29;
+	private static final int WARM_UP_STEPS = 600; //a few dives and the first fish respawn, which set things up the first time
+	private static final int MEASURED_STEPS = 3000; //several more respawns, on the seed above
+
+	@Test public void steadyStateStepsDontAllocate() {
+		ThreadAllocationCounter allocationCounter = ThreadAllocationCounter.create();
+		Assume.assumeNotNull(allocationCounter);
+
+		GameScreen gameScreen = new GameScreen(new SerialTaskRunner());
+		gameScreen.createHeadless(WIDTH, HEIGHT, SEED);
+
+		int step = 0;
+		for (; step < WARM_UP_STEPS; step++) {
+			step(gameScreen, step);
+		}
+
+		int allocatingSteps = 0;
+		long allocatedBytes = 0;
+		int firstAllocatingStep = -1;
+		for (; step < WARM_UP_STEPS + MEASURED_STEPS; step++) {
+			long allocatedBefore = allocationCounter.getAllocatedBytes();
+			step(gameScreen, step);
+			long allocated = allocationCounter.getAllocatedBytes() - allocatedBefore - allocationCounter.getReadOverhead();
+
+			if (allocated > 0) {
+				if (allocatingSteps++ == 0) firstAllocatingStep = step;
+				allocatedBytes += allocated;
+			}
+		}
+
+		gameScreen.dispose();
+
+		assertEquals(allocatingSteps + " of " + MEASURED_STEPS + " steps allocated, " + allocatedBytes + " bytes in all, first at step " + firstAllocatingStep,
+			0, allocatingSteps);
+	}
+
+	//a press every one and a half seconds, held long enough to dive rather than flap
+	private static void step(GameScreen gameScreen, int step) {
+		if (step % 90 == 0) {
+			gameScreen.queueInput(true);
+		} else if (step % 90 == 40) {
+			gameScreen.queueInput(false);
+		}
+
+		gameScreen.step(TIME_STEP);
+	}
+}